@@ -0,0 +1,134 @@
+/*
+ * BOBYQABackend.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.xml.AttributeRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.SimpleBounds;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.BOBYQAOptimizer;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Powell's bound-constrained trust-region method with quadratic models, which suits smooth problems of two or more dimensions.
+ * It stops once the trust region has shrunk to the stopping radius and ignores the convergence checker.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class BOBYQABackend implements OptimizerBackend {
+
+    private static final long serialVersionUID = 0L;
+
+    public static final String NAME = "bobyqa";
+
+    private static final String INTERPOLATION_POINTS = "interpolationPoints";
+    private static final String INITIAL_RADIUS = "initialRadius";
+    private static final String STOPPING_RADIUS = "stoppingRadius";
+
+    static final XMLSyntaxRule[] RULES = {
+            AttributeRule.newIntegerRule(INTERPOLATION_POINTS, true),
+            AttributeRule.newDoubleRule(INITIAL_RADIUS, true),
+            AttributeRule.newDoubleRule(STOPPING_RADIUS, true)
+    };
+
+    private final int interpolationPoints;
+    private final double initialRadius;
+    private final double stoppingRadius;
+
+    /**
+     * @param interpolationPoints the number of points in the quadratic model, or zero for twice the dimension plus one
+     * @param initialRadius the initial trust region radius, or zero for the smallest step size
+     */
+    public BOBYQABackend(final int interpolationPoints, final double initialRadius, final double stoppingRadius) {
+        this.interpolationPoints = interpolationPoints;
+        this.initialRadius = initialRadius;
+        this.stoppingRadius = stoppingRadius;
+    }
+
+    @Override
+    public PointValuePair maximize(final MultivariateFunction function, final double[] start, final double[] sigma,
+                                   final double[] lower, final double[] upper, final int maxEvaluations,
+                                   final ConvergenceChecker<PointValuePair> checker, final RandomGenerator random) {
+
+        // The initial trust region must fit within the bounds
+        double radius = initialRadius;
+        if (radius <= 0) {
+            radius = Double.POSITIVE_INFINITY;
+            for (final double s : sigma)
+                radius = Math.min(radius, s);
+        }
+        for (int i = 0; i < start.length; ++i)
+            radius = Math.min(radius, (upper[i] - lower[i]) / 2);
+
+        final BOBYQAOptimizer optimizer = new BOBYQAOptimizer(
+                interpolationPoints > 0 ? interpolationPoints : 2 * start.length + 1,
+                radius, Math.min(stoppingRadius, radius));
+
+        return optimizer.optimize(
+                GoalType.MAXIMIZE,
+                new ObjectiveFunction(function),
+                new InitialGuess(start),
+                new SimpleBounds(lower, upper),
+                new MaxEval(maxEvaluations)
+        );
+    }
+
+    @Override
+    public boolean evaluatesBatches() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    static BOBYQABackend parse(final XMLObject xo, final int dimension) throws XMLParseException {
+        if (dimension < 2)
+            throw new XMLParseException(NAME + " requires at least two dimensions");
+        final int interpolationPoints = xo.getAttribute(INTERPOLATION_POINTS, 0);
+        if (interpolationPoints != 0 && (interpolationPoints < dimension + 2 || interpolationPoints > (dimension + 1) * (dimension + 2) / 2))
+            throw new XMLParseException(INTERPOLATION_POINTS + " must be between the dimension plus two and "
+                    + "(dimension + 1) * (dimension + 2) / 2");
+        final double initialRadius = xo.getAttribute(INITIAL_RADIUS, 0.0);
+        if (initialRadius < 0)
+            throw new XMLParseException(INITIAL_RADIUS + " must not be negative");
+        final double stoppingRadius = xo.getAttribute(STOPPING_RADIUS, 1e-8);
+        if (stoppingRadius <= 0)
+            throw new XMLParseException(STOPPING_RADIUS + " must be positive");
+        return new BOBYQABackend(interpolationPoints, initialRadius, stoppingRadius);
+    }
+
+}
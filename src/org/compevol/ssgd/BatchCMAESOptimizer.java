@@ -0,0 +1,316 @@
+/*
+ * BatchCMAESOptimizer.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.exception.NotStrictlyPositiveException;
+import org.apache.commons.math3.exception.OutOfRangeException;
+import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.exception.TooManyIterationsException;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A (mu/mu_w, lambda) CMA-ES that hands each generation's candidates to a {@link BatchFunction} at once,
+ * so they can be evaluated concurrently. The strategy parameters, the initial diagonal-only phase,
+ * the stopping criteria, the checks on the arguments and the handling of bounds
+ * (evaluating the nearest feasible point with a penalty for the distance to it) follow CMAESOptimizer.
+ * The candidates are drawn in the same order however the batch is evaluated, so for a given random generator
+ * the result does not depend on the number of threads.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+final class BatchCMAESOptimizer {
+
+    private static final double STOP_TOL_FUN = 1e-12;
+    private static final double STOP_TOL_HIST_FUN = 1e-13;
+    private static final double MAX_CONDITION = 1e7;
+
+    private final int populationSize;
+    private final int diagonalOnly;
+    private final int maxIterations;
+    private final RandomGenerator random;
+    private final ConvergenceChecker<PointValuePair> checker;
+
+    /**
+     * @param diagonalOnly the number of initial generations during which the covariance matrix is kept diagonal
+     */
+    BatchCMAESOptimizer(final int populationSize, final int diagonalOnly, final int maxIterations,
+                        final RandomGenerator random, final ConvergenceChecker<PointValuePair> checker) {
+        if (populationSize <= 0)
+            throw new NotStrictlyPositiveException(populationSize);
+        this.populationSize = populationSize;
+        this.diagonalOnly = diagonalOnly;
+        this.maxIterations = maxIterations;
+        this.random = random;
+        this.checker = checker;
+    }
+
+    PointValuePair maximize(final BatchFunction function, final double[] start, final double[] inputSigma,
+                            final double[] lower, final double[] upper, final int maxEvaluations) {
+
+        final int n = start.length;
+        if (inputSigma.length != n)
+            throw new DimensionMismatchException(inputSigma.length, n);
+        for (int i = 0; i < n; ++i) {
+            if (start[i] < lower[i] || start[i] > upper[i])
+                throw new OutOfRangeException(start[i], lower[i], upper[i]);
+            if (inputSigma[i] > upper[i] - lower[i])
+                throw new OutOfRangeException(inputSigma[i], 0, upper[i] - lower[i]);
+        }
+
+        final int lambda = populationSize;
+        final int mu = lambda / 2;
+
+        final double[] weights = new double[mu];
+        double sum = 0;
+        for (int i = 0; i < mu; ++i) {
+            weights[i] = Math.log(mu + 0.5) - Math.log(i + 1);
+            sum += weights[i];
+        }
+        double sumSquares = 0;
+        for (int i = 0; i < mu; ++i) {
+            weights[i] /= sum;
+            sumSquares += weights[i] * weights[i];
+        }
+        final double mueff = 1 / sumSquares;
+
+        final double cc = (4 + mueff / n) / (n + 4 + 2 * mueff / n);
+        final double cs = (mueff + 2) / (n + mueff + 3);
+        final double c1 = 2 / ((n + 1.3) * (n + 1.3) + mueff);
+        final double cmu = Math.min(1 - c1, 2 * (mueff - 2 + 1 / mueff) / ((n + 2) * (n + 2) + mueff));
+        final double c1Diagonal = Math.min(1, c1 * (n + 1.5) / 3);
+        final double cmuDiagonal = Math.min(1 - c1, cmu * (n + 1.5) / 3);
+        final double damps = 1 + 2 * Math.max(0, Math.sqrt((mueff - 1) / (n + 1)) - 1) + cs;
+        final double chiN = Math.sqrt(n) * (1 - 1.0 / (4 * n) + 1.0 / (21.0 * n * n));
+
+        // The per-dimension step sizes become the initial (diagonal) shape of the distribution
+        double sigma = 0;
+        for (final double s : inputSigma)
+            sigma = Math.max(sigma, s);
+        final double stopTolUpX = 1e3 * sigma;
+        final double stopTolX = 1e-11 * sigma;
+        final double[] history = new double[10 + (int) (3 * 10 * n / (double) lambda)];
+        Arrays.fill(history, Double.MAX_VALUE);
+
+        final double[] mean = start.clone();
+        final double[][] b = new double[n][n];
+        final double[] d = new double[n];
+        final double[][] c = new double[n][n];
+        for (int i = 0; i < n; ++i) {
+            b[i][i] = 1;
+            d[i] = inputSigma[i] / sigma;
+            c[i][i] = d[i] * d[i];
+        }
+        final double[] pc = new double[n];
+        final double[] ps = new double[n];
+
+        final double[][] x = new double[lambda][n];
+        final double[][] repaired = new double[lambda][n];
+        final double[] z = new double[n];
+        final double[] yw = new double[n];
+        final double[] oldMean = new double[n];
+
+        PointValuePair best = null;
+        PointValuePair previous = null;
+        int evaluations = 0;
+
+        for (int generation = 1; ; ++generation) {
+
+            if (generation > maxIterations)
+                throw new TooManyIterationsException(maxIterations);
+            if (evaluations + lambda > maxEvaluations)
+                throw new TooManyEvaluationsException(maxEvaluations);
+
+            final boolean diagonal = generation <= diagonalOnly;
+
+            for (int k = 0; k < lambda; ++k) {
+                for (int i = 0; i < n; ++i)
+                    z[i] = d[i] * random.nextGaussian();
+                for (int i = 0; i < n; ++i) {
+                    double y = 0;
+                    for (int j = 0; j < n; ++j)
+                        y += b[i][j] * z[j];
+                    x[k][i] = mean[i] + sigma * y;
+                    repaired[k][i] = Math.min(Math.max(x[k][i], lower[i]), upper[i]);
+                }
+            }
+
+            final double[] values = function.values(repaired);
+            evaluations += lambda;
+
+            // Minimize the negated values, penalizing infeasible candidates in proportion to the range of values
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (final double v : values) {
+                if (!Double.isInfinite(v) && !Double.isNaN(v)) {
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+            }
+            final double range = max > min ? max - min : 1.0;
+            final double[] fitness = new double[lambda];
+            final Integer[] order = new Integer[lambda];
+            PointValuePair generationBest = null;
+            for (int k = 0; k < lambda; ++k) {
+                final double v = Double.isNaN(values[k]) ? Double.NEGATIVE_INFINITY : values[k];
+                double penalty = 0;
+                for (int i = 0; i < n; ++i)
+                    penalty += Math.abs(x[k][i] - repaired[k][i]);
+                fitness[k] = -v + range * penalty;
+                order[k] = k;
+                if (generationBest == null || v > generationBest.getValue())
+                    generationBest = new PointValuePair(repaired[k].clone(), v);
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer a, final Integer b) {
+                    return Double.compare(fitness[a], fitness[b]);
+                }
+            });
+            final double bestFitness = fitness[order[0]];
+            final double worstFitness = fitness[order[lambda - 1]];
+
+            if (best == null || generationBest.getValue() > best.getValue())
+                best = generationBest;
+
+            // Mean
+            System.arraycopy(mean, 0, oldMean, 0, n);
+            for (int i = 0; i < n; ++i) {
+                double m = 0;
+                for (int r = 0; r < mu; ++r)
+                    m += weights[r] * x[order[r]][i];
+                mean[i] = m;
+                yw[i] = (mean[i] - oldMean[i]) / sigma;
+            }
+
+            // Evolution paths
+            final double[] inverseSqrt = new double[n];
+            for (int j = 0; j < n; ++j) {
+                double t = 0;
+                for (int i = 0; i < n; ++i)
+                    t += b[i][j] * yw[i];
+                inverseSqrt[j] = t / d[j];
+            }
+            final double csFactor = Math.sqrt(cs * (2 - cs) * mueff);
+            double psNorm = 0;
+            for (int i = 0; i < n; ++i) {
+                double t = 0;
+                for (int j = 0; j < n; ++j)
+                    t += b[i][j] * inverseSqrt[j];
+                ps[i] = (1 - cs) * ps[i] + csFactor * t;
+                psNorm += ps[i] * ps[i];
+            }
+            psNorm = Math.sqrt(psNorm);
+            final boolean hsig = psNorm / Math.sqrt(1 - Math.pow(1 - cs, 2 * generation)) / chiN < 1.4 + 2.0 / (n + 1);
+            final double ccFactor = Math.sqrt(cc * (2 - cc) * mueff);
+            for (int i = 0; i < n; ++i)
+                pc[i] = (1 - cc) * pc[i] + (hsig ? ccFactor * yw[i] : 0);
+
+            // Covariance, with faster learning rates while only its diagonal is adapted
+            final double rankOne = diagonal ? c1Diagonal : c1;
+            final double rankMuRate = diagonal ? cmuDiagonal : cmu;
+            final double oldWeight = 1 - rankOne - rankMuRate + (hsig ? 0 : rankOne * cc * (2 - cc));
+            for (int i = 0; i < n; ++i) {
+                for (int j = diagonal ? i : 0; j <= i; ++j) {
+                    double rankMu = 0;
+                    for (int r = 0; r < mu; ++r) {
+                        final double[] xr = x[order[r]];
+                        rankMu += weights[r] * (xr[i] - oldMean[i]) * (xr[j] - oldMean[j]);
+                    }
+                    c[i][j] = c[j][i] = oldWeight * c[i][j] + rankOne * pc[i] * pc[j] + rankMuRate * rankMu / (sigma * sigma);
+                }
+            }
+
+            sigma *= Math.exp((cs / damps) * (psNorm / chiN - 1));
+
+            if (diagonal) {
+                for (int i = 0; i < n; ++i)
+                    d[i] = Math.sqrt(Math.max(c[i][i], 0));
+            } else {
+                final EigenDecomposition eigen = new EigenDecomposition(new Array2DRowRealMatrix(c, false));
+                final RealMatrix vectors = eigen.getV();
+                for (int j = 0; j < n; ++j) {
+                    d[j] = Math.sqrt(Math.max(eigen.getRealEigenvalue(j), 0));
+                    for (int i = 0; i < n; ++i)
+                        b[i][j] = vectors.getEntry(i, j);
+                }
+            }
+
+            // Stopping criteria
+            boolean tolX = true;
+            boolean tolUpX = false;
+            for (int i = 0; i < n; ++i) {
+                final double sqrtC = Math.sqrt(c[i][i]);
+                tolX &= sigma * Math.max(Math.abs(pc[i]), sqrtC) <= stopTolX;
+                tolUpX |= sigma * sqrtC > stopTolUpX;
+            }
+            if (tolX || tolUpX)
+                break;
+            double historyBest = Double.POSITIVE_INFINITY;
+            double historyWorst = Double.NEGATIVE_INFINITY;
+            for (final double h : history) {
+                historyBest = Math.min(historyBest, h);
+                historyWorst = Math.max(historyWorst, h);
+            }
+            if (generation > 2 && Math.max(historyWorst, worstFitness) - Math.min(historyBest, bestFitness) < STOP_TOL_FUN)
+                break;
+            if (generation > history.length && historyWorst - historyBest < STOP_TOL_HIST_FUN)
+                break;
+            double maxD = 0;
+            double minD = Double.POSITIVE_INFINITY;
+            for (final double dj : d) {
+                maxD = Math.max(maxD, dj);
+                minD = Math.min(minD, dj);
+            }
+            if (maxD / minD > MAX_CONDITION)
+                break;
+            if (previous != null && checker != null && checker.converged(generation, generationBest, previous))
+                break;
+            previous = generationBest;
+
+            // Escape flat fitness
+            if (bestFitness == fitness[order[(int) (0.1 + lambda / 4.0)]])
+                sigma *= Math.exp(0.2 + cs / damps);
+            if (generation > 2 && Math.max(historyWorst, bestFitness) - Math.min(historyBest, bestFitness) == 0)
+                sigma *= Math.exp(0.2 + cs / damps);
+
+            System.arraycopy(history, 0, history, 1, history.length - 1);
+            history[0] = bestFitness;
+
+        }
+
+        return best;
+    }
+
+}
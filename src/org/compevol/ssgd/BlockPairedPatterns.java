@@ -0,0 +1,130 @@
+/*
+ * BlockPairedPatterns.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLObjectParser;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+import java.util.Arrays;
+
+/**
+ * Paired patterns made up of blocks (e.g. loci), whose weights are a weighted sum of the block weights.
+ * Reweighting the blocks updates the weights in place, which is all a block bootstrap replicate needs.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class BlockPairedPatterns extends PairedPatterns {
+
+    private static final long serialVersionUID = 0L;
+
+    private final double[][] blocks;
+
+    public BlockPairedPatterns(final PairedPatterns... blocks) {
+
+        super(blocks[0].getDataType(), blocks[0].getTaxa());
+
+        this.blocks = new double[blocks.length][];
+        for (int b = 0; b < blocks.length; ++b) {
+            if (!isCompatible(blocks[b]))
+                throw new IllegalArgumentException("All blocks must have the same taxa and data type.");
+            this.blocks[b] = blocks[b].getWeights();
+        }
+
+        final double[] blockWeights = new double[blocks.length];
+        Arrays.fill(blockWeights, 1.0);
+        setBlockWeights(blockWeights);
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    /**
+     * The weights of a single block, indexed as those of the combined patterns.
+     */
+    final double[] getBlock(final int block) {
+        return blocks[block];
+    }
+
+    public void setBlockWeights(final double[] blockWeights) {
+
+        final double[] weights = getWeights();
+        Arrays.fill(weights, 0.0);
+
+        for (int b = 0; b < blocks.length; ++b) {
+            final double w = blockWeights[b];
+            if (w == 0)
+                continue;
+            final double[] block = blocks[b];
+            for (int k = 0; k < weights.length; ++k)
+                weights[k] += w * block[k];
+        }
+
+    }
+
+    public static final XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        @Override
+        public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
+            final PairedPatterns[] blocks = new PairedPatterns[xo.getChildCount()];
+            for (int i = 0; i < blocks.length; ++i)
+                blocks[i] = (PairedPatterns) xo.getChild(i);
+            try {
+                return new BlockPairedPatterns(blocks);
+            } catch (final IllegalArgumentException ex) {
+                throw new XMLParseException(ex.getMessage());
+            }
+        }
+
+        @Override
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+        private final XMLSyntaxRule[] rules = {new ElementRule(PairedPatterns.class, 1, Integer.MAX_VALUE)};
+
+        @Override
+        public String getParserDescription() {
+            return "Combines several PairedPatterns into blocks that can be resampled.";
+        }
+
+        @Override
+        public Class getReturnType() {
+            return BlockPairedPatterns.class;
+        }
+
+        @Override
+        public String getParserName() {
+            return "blockPairedPatterns";
+        }
+
+    };
+
+}
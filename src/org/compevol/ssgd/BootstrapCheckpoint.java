@@ -0,0 +1,119 @@
+/*
+ * BootstrapCheckpoint.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The progress of a bootstrap run: the master seed from which every replicate's random stream is derived
+ * and the results of the completed replicates. Together these are enough to resume a run with exactly
+ * the same random streams.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class BootstrapCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 0L;
+
+    private final long seed;
+    private final boolean poisson;
+    private final SortedMap<Integer,double[]> results = new TreeMap<Integer,double[]>();
+
+    public BootstrapCheckpoint(final long seed, final boolean poisson) {
+        this.seed = seed;
+        this.poisson = poisson;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isPoisson() {
+        return poisson;
+    }
+
+    public boolean isComplete(final int replicate) {
+        return results.containsKey(replicate);
+    }
+
+    public double[] getResult(final int replicate) {
+        return results.get(replicate);
+    }
+
+    public void addResult(final int replicate, final double[] result) {
+        results.put(replicate, result.clone());
+    }
+
+    public int getCompletedCount() {
+        return results.size();
+    }
+
+    public static BootstrapCheckpoint read(final File file) throws IOException {
+        final ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+        try {
+            return (BootstrapCheckpoint) in.readObject();
+        } catch (final ClassNotFoundException ex) {
+            throw new IOException(ex.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes to a temporary file first and then renames it over the checkpoint,
+     * so a run killed mid-write leaves the previous checkpoint intact.
+     */
+    public void write(final File file) throws IOException {
+
+        final File temporary = new File(file.getPath() + ".tmp");
+        final FileOutputStream fos = new FileOutputStream(temporary);
+        final ObjectOutputStream out = new ObjectOutputStream(fos);
+        try {
+            out.writeObject(this);
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(file)) {
+            // Some platforms will not rename over an existing file
+            if (!file.delete() || !temporary.renameTo(file))
+                throw new IOException("Could not write checkpoint " + file);
+        }
+
+    }
+
+}
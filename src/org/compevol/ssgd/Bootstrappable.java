@@ -27,12 +27,48 @@
 package org.compevol.ssgd;
 
 import dr.evolution.alignment.PatternList;
+import dr.inference.model.Parameter;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.io.Serializable;
 
 /**
+ * Analyses that can be bootstrapped. To run replicates in parallel the analysis is copied through serialization,
+ * and each replicate's result is carried back to the original with {@link #getResult} and {@link #setResult}.
+ *
  * @author Arman Bilge <armanbilge@gmail.com>
  */
-public interface Bootstrappable extends Runnable {
+public interface Bootstrappable extends Runnable, Serializable {
 
     void setPatterns(PatternList... patterns);
 
+    void setPairedPatterns(PairedPatterns... patterns);
+
+    void setRandomGenerator(RandomGenerator random);
+
+    double[] getResult();
+
+    void setResult(double[] result);
+
+    /**
+     * Called with the result for the original data before any resampled replicate is run,
+     * so that the replicates can start their search from it.
+     */
+    void setOriginalResult(double[] result);
+
+    /**
+     * The parameter whose values are the result.
+     */
+    Parameter getVariables();
+
+    /**
+     * The function the analysis maximizes over the variables.
+     */
+    TransformedFunction getFunction();
+
+    /**
+     * The likelihoods of the patterns, in the order they are set.
+     */
+    PairedCompositeLikelihood[] getLikelihoods();
+
 }
@@ -29,6 +29,7 @@ package org.compevol.ssgd;
 import dr.evolution.alignment.PatternList;
 import dr.evolution.alignment.Patterns;
 import dr.math.MathUtils;
+import org.apache.commons.math3.random.RandomGenerator;
 
 /**
  * @author Arman Bilge
@@ -36,16 +37,18 @@ import dr.math.MathUtils;
 public class BootstrappedPatterns extends Patterns {
 
     public BootstrappedPatterns(final PatternList patterns) {
+        this(patterns, RandomStreams.global());
+    }
+
+    public BootstrappedPatterns(final PatternList patterns, final RandomGenerator random) {
 
         super(patterns.getDataType(), patterns);
 
         final double[] weights = patterns.getPatternWeights();
         final double[] newWeights = new double[weights.length];
 
-        for (int i = 0; i < MathUtils.getTotal(weights); ++i) {
-            final int r = MathUtils.randomChoicePDF(weights);
-            newWeights[r] += 1;
-        }
+        // As many draws as there are whole or partial units of weight, each choosing a pattern in proportion to its weight
+        Multinomial.sample(random, (long) Math.ceil(MathUtils.getTotal(weights)), weights, newWeights);
 
         for (int i = 0; i < patterns.getPatternCount(); ++i)
             addPattern(patterns.getPattern(i), newWeights[i]);
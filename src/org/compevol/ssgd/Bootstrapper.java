@@ -28,6 +28,7 @@ package org.compevol.ssgd;
 
 import dr.evolution.alignment.PatternList;
 import dr.inference.loggers.Logger;
+import dr.math.MathUtils;
 import dr.xml.AbstractXMLObjectParser;
 import dr.xml.AttributeRule;
 import dr.xml.ElementRule;
@@ -36,10 +37,20 @@ import dr.xml.XMLObject;
 import dr.xml.XMLObjectParser;
 import dr.xml.XMLParseException;
 import dr.xml.XMLSyntaxRule;
-import jdk.nashorn.internal.runtime.linker.Bootstrap;
+import org.apache.commons.math3.random.RandomGenerator;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Arman Bilge
@@ -50,12 +61,116 @@ public class Bootstrapper implements Spawnable {
     private final Logger logger;
     private final int replicates;
     private final PatternList[] patterns;
+    private final BlockPairedPatterns[] blockPatterns;
+    private final double[][] patternWeights;
+    private final long[] patternDraws;
+    private final double[][] uniformBlockWeights;
+
+    private Long seed = null;
+    private int threadCount = 1;
+    private boolean poisson = false;
+    private File checkpointFile = null;
+    private BootstrapCheckpoint checkpoint = null;
+    private boolean newton = false;
+    private int validationCount = 0;
+    private boolean logPatterns = false;
 
     public Bootstrapper(final Bootstrappable analysis, final Logger logger, final int replicates, final PatternList... patterns) {
+        this(analysis, logger, replicates, patterns, new BlockPairedPatterns[0]);
+    }
+
+    public Bootstrapper(final Bootstrappable analysis, final Logger logger, final int replicates, final BlockPairedPatterns... blockPatterns) {
+        this(analysis, logger, replicates, new PatternList[0], blockPatterns);
+    }
+
+    private Bootstrapper(final Bootstrappable analysis, final Logger logger, final int replicates, final PatternList[] patterns, final BlockPairedPatterns[] blockPatterns) {
         this.analysis = analysis;
         this.logger = logger;
         this.replicates = replicates;
         this.patterns = patterns;
+        this.blockPatterns = blockPatterns;
+        patternWeights = new double[patterns.length][];
+        patternDraws = new long[patterns.length];
+        for (int j = 0; j < patterns.length; ++j) {
+            patternWeights[j] = patterns[j].getPatternWeights();
+            patternDraws[j] = (long) Math.ceil(MathUtils.getTotal(patternWeights[j]));
+        }
+        uniformBlockWeights = new double[blockPatterns.length][];
+        for (int j = 0; j < blockPatterns.length; ++j) {
+            uniformBlockWeights[j] = new double[blockPatterns[j].getBlockCount()];
+            Arrays.fill(uniformBlockWeights[j], 1.0);
+        }
+    }
+
+    /**
+     * With a seed, replicate i draws everything (both its resampled weights and any randomness in the analysis)
+     * from a stream derived from the seed and i, so its result does not depend on when or where it is run.
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * In a Poisson bootstrap every unit (pattern or block) independently gets a Poisson weight with mean
+     * equal to its original weight, drawn from a counter-based generator keyed on the seed, the replicate and the unit.
+     */
+    public void setPoisson(final boolean poisson) {
+        if (poisson && seed == null)
+            seed = MathUtils.nextLong();
+        this.poisson = poisson;
+    }
+
+    /**
+     * Replicates are run concurrently on replicas of the analysis when there is more than one thread,
+     * but are still logged in order.
+     */
+    public void setThreadCount(final int threadCount) {
+        if (newton && threadCount > 1)
+            throw new IllegalArgumentException("Newton replicates cannot use threads.");
+        if (threadCount > 1 && seed == null)
+            seed = MathUtils.nextLong();
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Records the result of every completed replicate in the given file. When resuming, replicates already
+     * in the file are not rerun but are still logged, so the output is the same as that of an uninterrupted run.
+     */
+    public void setCheckpoint(final File file, final boolean resume) throws IOException {
+        if (newton)
+            throw new IllegalArgumentException("Newton replicates cannot use a checkpoint.");
+        if (resume && file.exists()) {
+            checkpoint = BootstrapCheckpoint.read(file);
+            if (checkpoint.isPoisson() != poisson)
+                throw new IllegalArgumentException("The checkpoint was made with a different bootstrap method.");
+            seed = checkpoint.getSeed();
+        } else {
+            if (seed == null)
+                seed = MathUtils.nextLong();
+            checkpoint = new BootstrapCheckpoint(seed, poisson);
+        }
+        checkpointFile = file;
+    }
+
+    /**
+     * Approximates each replicate by a single Newton step from the original estimate instead of running the analysis.
+     * A given number of replicates, spread evenly, are also run in full to assess the approximation.
+     * The replicates are approximated one after the other, as each costs no more than a small linear solve,
+     * so there must be a single thread and no checkpoint.
+     */
+    public void setNewton(final boolean newton, final int validationCount) {
+        if (newton && (threadCount > 1 || checkpoint != null))
+            throw new IllegalArgumentException("Newton replicates cannot use threads or a checkpoint.");
+        this.newton = newton;
+        this.validationCount = validationCount;
+    }
+
+    /**
+     * Whether the logger has columns that depend on the replicates' patterns (e.g. a likelihood) as well as on their results.
+     * Otherwise, replicates run on replicas or approximated are logged without bringing the original into their state.
+     */
+    public void setLogPatterns(final boolean logPatterns) {
+        this.logPatterns = logPatterns;
     }
 
     @Override
@@ -68,28 +183,276 @@ public class Bootstrapper implements Spawnable {
 
         logger.startLogging();
 
-        analysis.setPatterns(patterns);
-        analysis.run();
-        logger.log(0);
+        if (newton)
+            runNewton();
+        else if (threadCount > 1)
+            runParallel();
+        else
+            runSerial();
 
-        for (int i = 1; i <= replicates; ++i) {
+        // Leave the block patterns with their original weights
+        if (blockPatterns.length > 0) {
+            for (int j = 0; j < blockPatterns.length; ++j)
+                blockPatterns[j].setBlockWeights(uniformBlockWeights[j]);
+            analysis.setPairedPatterns(blockPatterns);
+        }
 
-            final PatternList[] bootstrappedPatterns = new PatternList[patterns.length];
-            for (int j = 0; j < patterns.length; ++j)
-                bootstrappedPatterns[j] = new BootstrappedPatterns(patterns[j]);
+    }
 
-            analysis.setPatterns(bootstrappedPatterns);
+    private RandomGenerator getRandomGenerator(final int replicate) {
+        return seed != null ? RandomStreams.create(seed, replicate) : RandomStreams.global();
+    }
+
+    private void runSerial() {
+        // The same weight buffers are refilled for every replicate
+        final Replicate replicate = new Replicate();
+        for (int i = 0; i <= replicates; ++i)
+            runReplicate(i, replicate);
+    }
+
+    private void runReplicate(final int index, final Replicate replicate) {
+        final RandomGenerator random = getRandomGenerator(index);
+        replicate.draw(index, random);
+        replicate.apply(analysis, blockPatterns);
+        if (isComplete(index)) {
+            analysis.setResult(checkpoint.getResult(index));
+        } else {
+            analysis.setRandomGenerator(random);
             analysis.run();
+            complete(index, analysis.getResult());
+        }
+        logger.log(index);
+        // The original data are still applied, so the analysis can prepare the replicates' starting point
+        if (index == 0)
+            analysis.setOriginalResult(analysis.getResult());
+    }
+
+    private boolean isComplete(final int replicate) {
+        return checkpoint != null && checkpoint.isComplete(replicate);
+    }
+
+    private void complete(final int replicate, final double[] result) {
+        if (checkpoint != null) {
+            checkpoint.addResult(replicate, result);
+            try {
+                checkpoint.write(checkpointFile);
+            } catch (final IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
 
+    private void runNewton() {
+
+        final Replicate replicate = new Replicate();
+        runReplicate(0, replicate);
+
+        final NewtonBootstrap approximation = new NewtonBootstrap(analysis, patterns, blockPatterns);
+
+        final int validationInterval = validationCount > 0 ? Math.max(replicates / validationCount, 1) : 0;
+        final List<double[]> approximations = new ArrayList<double[]>();
+        final List<double[]> refits = new ArrayList<double[]>();
+
+        for (int i = 1; i <= replicates; ++i) {
+            final RandomGenerator random = getRandomGenerator(i);
+            replicate.draw(i, random);
+            final double[] estimate = approximation.estimate(replicate.getUnitWeights());
+            // Only the refits and any logged columns that depend on them need the replicate's patterns
+            final boolean refit = validationInterval > 0 && i % validationInterval == 0 && refits.size() < validationCount;
+            if (refit || logPatterns)
+                replicate.apply(analysis, blockPatterns);
+            if (refit) {
+                analysis.setRandomGenerator(random);
+                analysis.run();
+                approximations.add(estimate);
+                refits.add(analysis.getResult());
+            }
+            analysis.setResult(estimate);
             logger.log(i);
+        }
+
+        if (!refits.isEmpty())
+            reportValidation(approximations, refits);
+
+    }
+
+    private static void reportValidation(final List<double[]> approximations, final List<double[]> refits) {
+
+        final int dimension = refits.get(0).length;
+        final int count = refits.size();
+
+        System.out.println("Newton approximation against " + count + " full refits:");
+        for (int d = 0; d < dimension; ++d) {
+            double mean = 0;
+            for (final double[] refit : refits)
+                mean += refit[d];
+            mean /= count;
+            double spread = 0;
+            double error = 0;
+            for (int k = 0; k < count; ++k) {
+                final double r = refits.get(k)[d];
+                spread += (r - mean) * (r - mean);
+                error += (approximations.get(k)[d] - r) * (approximations.get(k)[d] - r);
+            }
+            System.out.println("  dimension " + (d + 1) + ": RMS error " + Math.sqrt(error / count)
+                    + ", refit standard deviation " + Math.sqrt(spread / count));
+        }
+
+    }
+
+    private void runParallel() {
+
+        // The original data are analysed first and on the original, so that the replicas are copied with its result
+        runReplicate(0, new Replicate());
+
+        // Each worker takes a replica of the analysis (and of the block patterns it holds) for the duration of a replicate
+        final BlockingQueue<Object[]> replicas = new ArrayBlockingQueue<Object[]>(threadCount);
+        for (int t = 0; t < threadCount; ++t)
+            replicas.add(Replicas.copy(new Object[]{analysis, blockPatterns}));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+
+            final List<Future<Replicate>> futures = new ArrayList<Future<Replicate>>(replicates + 1);
+            futures.add(null);
+            for (int i = 1; i <= replicates; ++i) {
+                final int index = i;
+                if (isComplete(i)) {
+                    futures.add(null);
+                    continue;
+                }
+                futures.add(executor.submit(new Callable<Replicate>() {
+                    @Override
+                    public Replicate call() throws InterruptedException {
+                        final RandomGenerator random = getRandomGenerator(index);
+                        final Replicate replicate = new Replicate();
+                        replicate.draw(index, random);
+                        final Object[] replica = replicas.take();
+                        try {
+                            final Bootstrappable analysis = (Bootstrappable) replica[0];
+                            replicate.apply(analysis, (BlockPairedPatterns[]) replica[1]);
+                            analysis.setRandomGenerator(random);
+                            analysis.run();
+                            replicate.result = analysis.getResult();
+                        } finally {
+                            replicas.put(replica);
+                        }
+                        return replicate;
+                    }
+                }));
+            }
+
+            for (int i = 1; i <= replicates; ++i) {
+                final Replicate replicate;
+                if (isComplete(i)) {
+                    // The weights are regenerated from the replicate's stream and the result taken from the checkpoint
+                    replicate = new Replicate();
+                    replicate.draw(i, getRandomGenerator(i));
+                    replicate.result = checkpoint.getResult(i);
+                } else {
+                    replicate = futures.get(i).get();
+                    futures.set(i, null);
+                    complete(i, replicate.result);
+                }
+                // The logger only reads the result unless it depends on the patterns, which are then applied to the original
+                if (logPatterns)
+                    replicate.apply(analysis, blockPatterns);
+                analysis.setResult(replicate.result);
+                logger.log(i);
+            }
+
+        } catch (final InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (final ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+    private final class Replicate {
+
+        private final double[][] blockWeights;
+        private final ReweightedPatterns[] replicatePatterns;
+        private double[] result;
+
+        private Replicate() {
+            blockWeights = new double[blockPatterns.length][];
+            for (int j = 0; j < blockPatterns.length; ++j)
+                blockWeights[j] = new double[blockPatterns[j].getBlockCount()];
+            replicatePatterns = new ReweightedPatterns[patterns.length];
+            for (int j = 0; j < patterns.length; ++j)
+                replicatePatterns[j] = new ReweightedPatterns(patterns[j], new double[patternWeights[j].length]);
+        }
+
+        /**
+         * The 0th replicate is the original data.
+         */
+        private void draw(final int index, final RandomGenerator random) {
+
+            for (int j = 0; j < blockPatterns.length; ++j) {
+                if (index == 0)
+                    System.arraycopy(uniformBlockWeights[j], 0, blockWeights[j], 0, blockWeights[j].length);
+                else if (poisson)
+                    drawPoisson(index, j, uniformBlockWeights[j], blockWeights[j]);
+                else
+                    Multinomial.sample(random, blockWeights[j].length, uniformBlockWeights[j], blockWeights[j]);
+            }
+
+            for (int j = 0; j < patterns.length; ++j) {
+                final double[] weights = replicatePatterns[j].getWeights();
+                if (index == 0)
+                    System.arraycopy(patternWeights[j], 0, weights, 0, weights.length);
+                else if (poisson)
+                    drawPoisson(index, blockPatterns.length + j, patternWeights[j], weights);
+                else
+                    Multinomial.sample(random, patternDraws[j], patternWeights[j], weights);
+            }
 
         }
 
+        private double[][] getUnitWeights() {
+            if (blockPatterns.length > 0)
+                return blockWeights;
+            final double[][] weights = new double[replicatePatterns.length][];
+            for (int j = 0; j < replicatePatterns.length; ++j)
+                weights[j] = replicatePatterns[j].getWeights();
+            return weights;
+        }
+
+        private void drawPoisson(final int index, final int input, final double[] means, final double[] weights) {
+            for (int u = 0; u < weights.length; ++u)
+                weights[u] = PoissonWeights.sample(seed, index, ((long) input << 32) | u, means[u]);
+        }
+
+        private void apply(final Bootstrappable analysis, final BlockPairedPatterns[] blockPatterns) {
+            if (blockPatterns.length > 0) {
+                for (int j = 0; j < blockPatterns.length; ++j)
+                    blockPatterns[j].setBlockWeights(blockWeights[j]);
+                // The weights were changed in place so the likelihoods need to know
+                analysis.setPairedPatterns(blockPatterns);
+            } else {
+                analysis.setPatterns(replicatePatterns);
+            }
+        }
+
     }
 
     public static final XMLObjectParser PARSER = new AbstractXMLObjectParser() {
 
         private static final String REPLICATES = "replicates";
+        private static final String SEED = "seed";
+        private static final String THREADS = "threads";
+        private static final String METHOD = "method";
+        private static final String MULTINOMIAL = "multinomial";
+        private static final String POISSON = "poisson";
+        private static final String CHECKPOINT = "checkpoint";
+        private static final String RESUME = "resume";
+        private static final String NEWTON = "newton";
+        private static final String VALIDATE = "validate";
+        private static final String LOG_PATTERNS = "logPatterns";
 
         @Override
         public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
@@ -98,13 +461,70 @@ public class Bootstrapper implements Spawnable {
             final Logger logger = (Logger) xo.getChild(Logger.class);
             final int replicates = xo.getIntegerAttribute(REPLICATES);
             final List<PatternList> patterns = new ArrayList<PatternList>();
+            final List<BlockPairedPatterns> blockPatterns = new ArrayList<BlockPairedPatterns>();
             for (int i = 0; i < xo.getChildCount(); ++i) {
                 final Object o = xo.getChild(i);
                 if (o instanceof PatternList)
                     patterns.add((PatternList) o);
+                else if (o instanceof BlockPairedPatterns)
+                    blockPatterns.add((BlockPairedPatterns) o);
+            }
+
+            if (patterns.isEmpty() == blockPatterns.isEmpty())
+                throw new XMLParseException("Either pattern lists or block paired patterns must be given, but not both");
+
+            final Bootstrapper bootstrapper;
+            if (blockPatterns.isEmpty())
+                bootstrapper = new Bootstrapper(analysis, logger, replicates, patterns.toArray(new PatternList[patterns.size()]));
+            else
+                bootstrapper = new Bootstrapper(analysis, logger, replicates, blockPatterns.toArray(new BlockPairedPatterns[blockPatterns.size()]));
+
+            if (xo.hasAttribute(SEED))
+                bootstrapper.setSeed(xo.getLongIntegerAttribute(SEED));
+
+            final String method = xo.getAttribute(METHOD, MULTINOMIAL);
+            if (method.equals(POISSON))
+                bootstrapper.setPoisson(true);
+            else if (!method.equals(MULTINOMIAL))
+                throw new XMLParseException("unrecognized option for attribute, '" + METHOD + "': " + method);
+
+            final int threads = xo.getAttribute(THREADS, 1);
+            if (threads < 1)
+                throw new XMLParseException(THREADS + " must be positive");
+            bootstrapper.setThreadCount(threads);
+
+            if (xo.getAttribute(NEWTON, false)) {
+                if (threads > 1 || xo.hasAttribute(CHECKPOINT))
+                    throw new XMLParseException(NEWTON + " cannot be used with " + THREADS + " or a " + CHECKPOINT);
+                final int validate = xo.getAttribute(VALIDATE, 0);
+                if (validate < 0)
+                    throw new XMLParseException(VALIDATE + " must not be negative");
+                try {
+                    bootstrapper.setNewton(true, validate);
+                } catch (final IllegalArgumentException ex) {
+                    throw new XMLParseException(ex.getMessage());
+                }
+            } else if (xo.hasAttribute(VALIDATE)) {
+                throw new XMLParseException(VALIDATE + " requires " + NEWTON);
+            }
+
+            bootstrapper.setLogPatterns(xo.getAttribute(LOG_PATTERNS, false));
+
+            if (xo.hasAttribute(CHECKPOINT)) {
+                try {
+                    bootstrapper.setCheckpoint(new File(xo.getStringAttribute(CHECKPOINT)), xo.getAttribute(RESUME, false));
+                } catch (final IOException ex) {
+                    throw new XMLParseException(ex.getMessage());
+                } catch (final IllegalArgumentException ex) {
+                    throw new XMLParseException(ex.getMessage());
+                }
+                if (xo.hasAttribute(SEED) && xo.getLongIntegerAttribute(SEED) != bootstrapper.seed)
+                    throw new XMLParseException("The checkpoint was made with a different " + SEED);
+            } else if (xo.hasAttribute(RESUME)) {
+                throw new XMLParseException(RESUME + " requires a " + CHECKPOINT);
             }
 
-            return new Bootstrapper(analysis, logger, replicates, patterns.toArray(new PatternList[patterns.size()]));
+            return bootstrapper;
         }
 
         @Override
@@ -114,7 +534,16 @@ public class Bootstrapper implements Spawnable {
         private final XMLSyntaxRule[] rules = {new ElementRule(Bootstrappable.class),
                 new ElementRule(Logger.class),
                 AttributeRule.newIntegerRule(REPLICATES),
-                new ElementRule(PatternList.class, 1, Integer.MAX_VALUE)};
+                AttributeRule.newLongIntegerRule(SEED, true),
+                AttributeRule.newIntegerRule(THREADS, true),
+                AttributeRule.newStringRule(METHOD, true),
+                AttributeRule.newStringRule(CHECKPOINT, true),
+                AttributeRule.newBooleanRule(RESUME, true),
+                AttributeRule.newBooleanRule(NEWTON, true),
+                AttributeRule.newIntegerRule(VALIDATE, true),
+                AttributeRule.newBooleanRule(LOG_PATTERNS, true),
+                new ElementRule(PatternList.class, 0, Integer.MAX_VALUE),
+                new ElementRule(BlockPairedPatterns.class, 0, Integer.MAX_VALUE)};
 
         @Override
         public String getParserDescription() {
@@ -123,7 +552,7 @@ public class Bootstrapper implements Spawnable {
 
         @Override
         public Class getReturnType() {
-            return Bootstrap.class;
+            return Bootstrapper.class;
         }
 
         @Override
@@ -0,0 +1,58 @@
+/*
+ * BoundedFunction.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+
+/**
+ * Imposes bounds on a function to be maximized by an optimizer that cannot handle them itself,
+ * by giving every point outside of them a value of negative infinity.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+final class BoundedFunction implements MultivariateFunction {
+
+    private final MultivariateFunction function;
+    private final double[] lower;
+    private final double[] upper;
+
+    BoundedFunction(final MultivariateFunction function, final double[] lower, final double[] upper) {
+        this.function = function;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    @Override
+    public double value(final double[] point) {
+        for (int i = 0; i < point.length; ++i) {
+            if (!(point[i] >= lower[i] && point[i] <= upper[i]))
+                return Double.NEGATIVE_INFINITY;
+        }
+        return function.value(point);
+    }
+
+}
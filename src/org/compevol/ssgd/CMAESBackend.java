@@ -0,0 +1,161 @@
+/*
+ * CMAESBackend.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.xml.AttributeRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.MaxIter;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.SimpleBounds;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Covariance matrix adaptation evolution strategy, a robust global search.
+ * In batch mode the candidates of each generation are evaluated together (and so can be evaluated concurrently)
+ * by a separate implementation of the same strategy, whatever the number of threads.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class CMAESBackend implements OptimizerBackend {
+
+    private static final long serialVersionUID = 0L;
+
+    public static final String NAME = "cmaes";
+
+    private static final String POPULATION_SIZE = "populationSize";
+    private static final String DIAGONAL_ONLY = "diagonalOnly";
+    private static final String MAX_ITERATIONS = "maxIterations";
+    private static final String BATCH = "batch";
+
+    static final XMLSyntaxRule[] RULES = {
+            AttributeRule.newIntegerRule(POPULATION_SIZE, true),
+            AttributeRule.newIntegerRule(DIAGONAL_ONLY, true),
+            AttributeRule.newIntegerRule(MAX_ITERATIONS, true),
+            AttributeRule.newBooleanRule(BATCH, true)
+    };
+
+    private final int populationSize;
+    private final int diagonalOnly;
+    private int maxIterations = Integer.MAX_VALUE;
+    private boolean batch = false;
+
+    /**
+     * @param populationSize the number of candidates per generation, or zero for the default for the dimension
+     * @param diagonalOnly the number of initial iterations during which the covariance matrix is kept diagonal
+     */
+    public CMAESBackend(final int populationSize, final int diagonalOnly) {
+        this.populationSize = populationSize;
+        this.diagonalOnly = diagonalOnly;
+    }
+
+    public CMAESBackend() {
+        this(0, 0);
+    }
+
+    /**
+     * Limits the number of generations. A run that reaches it stops with its best point so far, as for the other limits.
+     */
+    public void setMaxIterations(final int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Evaluates the candidates of each generation together. This is what lets CMA-ES use more than one thread,
+     * and its results for a given seed are the same with any number of threads.
+     */
+    public void setBatch(final boolean batch) {
+        this.batch = batch;
+    }
+
+    static int getDefaultPopulationSize(final int dimension) {
+        return 4 + 3 * (int) Math.log(dimension);
+    }
+
+    @Override
+    public PointValuePair maximize(final MultivariateFunction function, final double[] start, final double[] sigma,
+                                   final double[] lower, final double[] upper, final int maxEvaluations,
+                                   final ConvergenceChecker<PointValuePair> checker, final RandomGenerator random) {
+
+        final int lambda = populationSize > 0 ? populationSize : getDefaultPopulationSize(start.length);
+
+        if (batch)
+            return new BatchCMAESOptimizer(lambda, diagonalOnly, maxIterations, random, checker).maximize(
+                    function instanceof BatchFunction ? (BatchFunction) function : new ConcurrentFunction(function, 1),
+                    start, sigma, lower, upper, maxEvaluations);
+
+        // The limit is imposed through MaxIter, so that reaching it throws rather than returning as if converged
+        final CMAESOptimizer optimizer = new CMAESOptimizer(Integer.MAX_VALUE, 0.0, true, diagonalOnly, 8096,
+                random, true, checker);
+
+        return optimizer.optimize(
+                new CMAESOptimizer.PopulationSize(lambda),
+                new CMAESOptimizer.Sigma(sigma),
+                GoalType.MAXIMIZE,
+                new ObjectiveFunction(function),
+                new InitialGuess(start),
+                new SimpleBounds(lower, upper),
+                new MaxEval(maxEvaluations),
+                new MaxIter(maxIterations)
+        );
+    }
+
+    @Override
+    public boolean evaluatesBatches() {
+        return batch;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    static CMAESBackend parse(final XMLObject xo) throws XMLParseException {
+        final int populationSize = xo.getAttribute(POPULATION_SIZE, 0);
+        if (populationSize < 0)
+            throw new XMLParseException(POPULATION_SIZE + " must not be negative");
+        final int diagonalOnly = xo.getAttribute(DIAGONAL_ONLY, 0);
+        if (diagonalOnly < 0)
+            throw new XMLParseException(DIAGONAL_ONLY + " must not be negative");
+        final CMAESBackend backend = new CMAESBackend(populationSize, diagonalOnly);
+        final int maxIterations = xo.getAttribute(MAX_ITERATIONS, Integer.MAX_VALUE);
+        if (maxIterations < 1)
+            throw new XMLParseException(MAX_ITERATIONS + " must be positive");
+        backend.setMaxIterations(maxIterations);
+        backend.setBatch(xo.getAttribute(BATCH, false));
+        return backend;
+    }
+
+}
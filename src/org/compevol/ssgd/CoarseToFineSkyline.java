@@ -0,0 +1,187 @@
+/*
+ * CoarseToFineSkyline.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.Spawnable;
+import dr.xml.XMLObject;
+import dr.xml.XMLObjectParser;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+import org.apache.commons.math3.optim.PointValuePair;
+
+/**
+ * Fits a skyline by first tying its epoch sizes into a few groups of adjacent epochs, then repeatedly splitting the groups
+ * and refitting from the previous solution (which is already piecewise constant over the finer groups) with a smaller
+ * step size, until every epoch is free.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class CoarseToFineSkyline implements Spawnable {
+
+    private final MaximumLikelihood optimizer;
+    private final int[] epochDimensions;
+    private final int initialGroupCount;
+    private final int factor;
+    private final double refinementStepSize;
+
+    /**
+     * @param epochDimensions the dimensions of the variables holding the epoch sizes, from the most recent epoch
+     * @param factor the factor by which the number of groups grows at each stage
+     * @param refinementStepSize the initial step size for every stage after the first
+     */
+    public CoarseToFineSkyline(final MaximumLikelihood optimizer, final int[] epochDimensions, final int initialGroupCount,
+                               final int factor, final double refinementStepSize) {
+        this.optimizer = optimizer;
+        this.epochDimensions = epochDimensions;
+        this.initialGroupCount = initialGroupCount;
+        this.factor = factor;
+        this.refinementStepSize = refinementStepSize;
+    }
+
+    @Override
+    public boolean getSpawnable() {
+        return true;
+    }
+
+    @Override
+    public void run() {
+
+        final int epochCount = epochDimensions.length;
+
+        double[] values = optimizer.getVariables().getParameterValues();
+        int groupCount = Math.min(initialGroupCount, epochCount);
+        double stepSize = 0;
+        while (true) {
+
+            final PointValuePair result = optimizer.maximizeTied(getGroups(groupCount), values, stepSize);
+            values = result.getPoint();
+            System.out.println(groupCount + " epoch groups: " + result.getValue());
+
+            if (groupCount == epochCount)
+                break;
+            groupCount = Math.min(groupCount * factor, epochCount);
+            stepSize = refinementStepSize;
+        }
+
+        System.out.println(optimizer.getVariables());
+    }
+
+    /**
+     * Splits the epochs into contiguous groups of (nearly) equal numbers of epochs.
+     */
+    private int[][] getGroups(final int groupCount) {
+        final int epochCount = epochDimensions.length;
+        final int[][] groups = new int[groupCount][];
+        for (int g = 0; g < groupCount; ++g) {
+            final int first = g * epochCount / groupCount;
+            final int last = (g + 1) * epochCount / groupCount;
+            groups[g] = new int[last - first];
+            for (int e = first; e < last; ++e)
+                groups[g][e - first] = epochDimensions[e];
+        }
+        return groups;
+    }
+
+    public static final XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        private static final String DIMENSIONS = "dimensions";
+        private static final String INITIAL_EPOCHS = "initialEpochs";
+        private static final String FACTOR = "factor";
+        private static final String REFINEMENT_STEP_SIZE = "refinementStepSize";
+
+        @Override
+        public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
+
+            final MaximumLikelihood optimizer = (MaximumLikelihood) xo.getChild(MaximumLikelihood.class);
+            final HKYSkylineIntegrator integrator = (HKYSkylineIntegrator) xo.getChild(HKYSkylineIntegrator.class);
+            final int epochCount = integrator.getEpochCount();
+            final int dimension = optimizer.getVariables().getDimension();
+
+            final int[] epochDimensions = new int[epochCount];
+            if (xo.hasAttribute(DIMENSIONS)) {
+                final int[] dimensions = xo.getIntegerArrayAttribute(DIMENSIONS);
+                if (dimensions.length != epochCount)
+                    throw new XMLParseException("Expected " + epochCount + " " + DIMENSIONS + ", one for each epoch");
+                for (int e = 0; e < epochCount; ++e) {
+                    if (dimensions[e] < 1 || dimensions[e] > dimension)
+                        throw new XMLParseException("Dimension " + dimensions[e] + " is out of range");
+                    epochDimensions[e] = dimensions[e] - 1;
+                }
+            } else {
+                if (epochCount > dimension)
+                    throw new XMLParseException("The variables have fewer dimensions than there are epochs");
+                for (int e = 0; e < epochCount; ++e)
+                    epochDimensions[e] = e;
+            }
+
+            final int initialEpochs = xo.getAttribute(INITIAL_EPOCHS, 5);
+            if (initialEpochs < 1)
+                throw new XMLParseException(INITIAL_EPOCHS + " must be positive");
+            final int factor = xo.getAttribute(FACTOR, 2);
+            if (factor < 2)
+                throw new XMLParseException(FACTOR + " must be at least two");
+            final double refinementStepSize = xo.getAttribute(REFINEMENT_STEP_SIZE, 0.1);
+            if (!(refinementStepSize > 0))
+                throw new XMLParseException(REFINEMENT_STEP_SIZE + " must be positive");
+
+            return new CoarseToFineSkyline(optimizer, epochDimensions, initialEpochs, factor, refinementStepSize);
+        }
+
+        @Override
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+        private final XMLSyntaxRule[] rules = {
+                new ElementRule(MaximumLikelihood.class),
+                new ElementRule(HKYSkylineIntegrator.class),
+                AttributeRule.newIntegerArrayRule(DIMENSIONS, true),
+                AttributeRule.newIntegerRule(INITIAL_EPOCHS, true),
+                AttributeRule.newIntegerRule(FACTOR, true),
+                AttributeRule.newDoubleRule(REFINEMENT_STEP_SIZE, true)
+        };
+
+        @Override
+        public String getParserDescription() {
+            return "Fits a skyline from coarse to fine resolution by tying and then splitting groups of adjacent epochs.";
+        }
+
+        @Override
+        public Class getReturnType() {
+            return CoarseToFineSkyline.class;
+        }
+
+        @Override
+        public String getParserName() {
+            return "coarseToFineSkyline";
+        }
+
+    };
+
+}
@@ -0,0 +1,197 @@
+/*
+ * CompoundPairedLikelihood.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.inference.model.CompoundModel;
+import dr.inference.model.Likelihood;
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLObjectParser;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The joint likelihood of several partitions (e.g. chromosomes or capture sets), evaluating those that changed in parallel.
+ * Partitions whose integrators depend on the same models share one integrator cache.
+ * BEAST models are not safe to read from several threads, as many update themselves lazily when read
+ * (e.g. the category rates of a site model), so the models of the changed partitions are first brought up to date
+ * on the calling thread and only then are the partitions evaluated concurrently.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class CompoundPairedLikelihood extends Likelihood.Abstract {
+
+    private final PairedCompositeLikelihood[] partitions;
+    private final double[] logLikelihoods;
+    private final int threadCount;
+
+    public CompoundPairedLikelihood(final int threadCount, final PairedCompositeLikelihood... partitions) {
+        super(new CompoundModel("CompoundPairedLikelihoodModel"));
+        final CompoundModel model = (CompoundModel) getModel();
+        for (final PairedCompositeLikelihood partition : partitions)
+            model.addModel(partition.getModel());
+        this.partitions = partitions;
+        logLikelihoods = new double[partitions.length];
+        this.threadCount = threadCount;
+        shareCaches();
+    }
+
+    private void shareCaches() {
+        final List<Integrator> shared = new ArrayList<Integrator>();
+        for (final PairedCompositeLikelihood partition : partitions) {
+            final Integrator integrator = partition.getIntegrator();
+            boolean found = false;
+            for (final Integrator other : shared) {
+                if (integrator.isEquivalent(other)) {
+                    if (integrator != other)
+                        integrator.shareCache(other);
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                shared.add(integrator);
+        }
+    }
+
+    public PairedCompositeLikelihood[] getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Also notices partitions made dirty without a model event, e.g. by new patterns.
+     */
+    @Override
+    public double getLogLikelihood() {
+        for (final PairedCompositeLikelihood partition : partitions) {
+            if (partition.isDirty()) {
+                makeDirty();
+                break;
+            }
+        }
+        return super.getLogLikelihood();
+    }
+
+    @Override
+    protected double calculateLogLikelihood() {
+
+        final List<Integer> dirty = new ArrayList<Integer>(partitions.length);
+        for (int i = 0; i < partitions.length; ++i) {
+            if (partitions[i].isDirty())
+                dirty.add(i);
+        }
+
+        if (threadCount > 1 && dirty.size() > 1) {
+
+            for (final int i : dirty)
+                partitions[i].prepare();
+
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, dirty.size()));
+            try {
+                final List<Future<?>> futures = new ArrayList<Future<?>>(dirty.size());
+                for (final int i : dirty) {
+                    futures.add(executor.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            logLikelihoods[i] = partitions[i].getLogLikelihood();
+                            return null;
+                        }
+                    }));
+                }
+                for (final Future<?> future : futures)
+                    future.get();
+            } catch (final InterruptedException ex) {
+                throw new RuntimeException(ex);
+            } catch (final ExecutionException ex) {
+                throw new RuntimeException(ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+
+        } else {
+            for (final int i : dirty)
+                logLikelihoods[i] = partitions[i].getLogLikelihood();
+        }
+
+        double logL = 0.0;
+        for (final double partitionLogL : logLikelihoods)
+            logL += partitionLogL;
+        return logL;
+    }
+
+    public static final XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        private static final String THREADS = "threads";
+
+        @Override
+        public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
+            final int threads = xo.getAttribute(THREADS, 1);
+            if (threads < 1)
+                throw new XMLParseException(THREADS + " must be positive");
+            final List<PairedCompositeLikelihood> partitions = new ArrayList<PairedCompositeLikelihood>(xo.getChildCount());
+            for (int i = 0; i < xo.getChildCount(); ++i) {
+                final Object o = xo.getChild(i);
+                if (o instanceof PairedCompositeLikelihood)
+                    partitions.add((PairedCompositeLikelihood) o);
+            }
+            return new CompoundPairedLikelihood(threads, partitions.toArray(new PairedCompositeLikelihood[partitions.size()]));
+        }
+
+        @Override
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+        private final XMLSyntaxRule[] rules = {AttributeRule.newIntegerRule(THREADS, true),
+                new ElementRule(PairedCompositeLikelihood.class, 1, Integer.MAX_VALUE)};
+
+        @Override
+        public String getParserDescription() {
+            return "The joint likelihood of several partitions, evaluated in parallel.";
+        }
+
+        @Override
+        public Class getReturnType() {
+            return CompoundPairedLikelihood.class;
+        }
+
+        @Override
+        public String getParserName() {
+            return "compoundPairedLikelihood";
+        }
+    };
+
+}
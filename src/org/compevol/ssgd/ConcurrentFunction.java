@@ -0,0 +1,115 @@
+/*
+ * ConcurrentFunction.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates batches of points concurrently on replicas of a function's model graph, so each evaluation has its own
+ * parameters, caches and tip states. Single points, and every point when there is only one thread, are evaluated
+ * on the original.
+ * The replicas are taken when this is created and do not follow later changes to the original (e.g. to its data).
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class ConcurrentFunction implements BatchFunction {
+
+    private final MultivariateFunction function;
+    private final BlockingQueue<MultivariateFunction> replicas;
+    private final ExecutorService executor;
+
+    public ConcurrentFunction(final MultivariateFunction function, final int threadCount) {
+        this.function = function;
+        if (threadCount > 1) {
+            replicas = new ArrayBlockingQueue<MultivariateFunction>(threadCount);
+            for (int t = 0; t < threadCount; ++t)
+                replicas.add(Replicas.copy(function));
+            executor = Executors.newFixedThreadPool(threadCount);
+        } else {
+            replicas = null;
+            executor = null;
+        }
+    }
+
+    @Override
+    public double value(final double[] point) {
+        return function.value(point);
+    }
+
+    @Override
+    public double[] values(final double[][] points) {
+
+        if (executor == null) {
+            final double[] values = new double[points.length];
+            for (int k = 0; k < points.length; ++k)
+                values[k] = function.value(points[k]);
+            return values;
+        }
+
+        final List<Future<Double>> futures = new ArrayList<Future<Double>>(points.length);
+        for (final double[] point : points) {
+            futures.add(executor.submit(new Callable<Double>() {
+                @Override
+                public Double call() throws InterruptedException {
+                    final MultivariateFunction replica = replicas.take();
+                    try {
+                        return replica.value(point);
+                    } finally {
+                        replicas.put(replica);
+                    }
+                }
+            }));
+        }
+
+        final double[] values = new double[points.length];
+        try {
+            for (int k = 0; k < points.length; ++k)
+                values[k] = futures.get(k).get();
+        } catch (final InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (final ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+        return values;
+    }
+
+    public void shutdown() {
+        if (executor != null)
+            executor.shutdown();
+    }
+
+}
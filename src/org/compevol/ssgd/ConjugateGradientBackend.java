@@ -0,0 +1,175 @@
+/*
+ * ConjugateGradientBackend.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.xml.AttributeRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.analysis.MultivariateVectorFunction;
+import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.MaxIter;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunctionGradient;
+import org.apache.commons.math3.optim.nonlinear.scalar.gradient.NonLinearConjugateGradientOptimizer;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Nonlinear conjugate gradients, with the gradient found by central differences
+ * (one-sided at the bounds) whose evaluations count towards the budget.
+ * Points outside of the bounds are projected onto them, so the line search sees a finite, continuous function.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class ConjugateGradientBackend implements OptimizerBackend {
+
+    private static final long serialVersionUID = 0L;
+
+    public static final String NAME = "conjugateGradient";
+
+    private static final String FORMULA = "formula";
+    private static final String FLETCHER_REEVES = "fletcherReeves";
+    private static final String POLAK_RIBIERE = "polakRibiere";
+    private static final String GRADIENT_STEP = "gradientStep";
+    private static final String BRACKETING_RANGE = "bracketingRange";
+
+    static final XMLSyntaxRule[] RULES = {
+            AttributeRule.newStringRule(FORMULA, true),
+            AttributeRule.newDoubleRule(GRADIENT_STEP, true),
+            AttributeRule.newDoubleRule(BRACKETING_RANGE, true)
+    };
+
+    private final NonLinearConjugateGradientOptimizer.Formula formula;
+    private final double gradientStep;
+    private final double bracketingRange;
+
+    /**
+     * @param gradientStep the finite difference step relative to the magnitude of each argument (or one, if larger)
+     * @param bracketingRange the initial range for bracketing the line search
+     */
+    public ConjugateGradientBackend(final NonLinearConjugateGradientOptimizer.Formula formula, final double gradientStep,
+                                    final double bracketingRange) {
+        this.formula = formula;
+        this.gradientStep = gradientStep;
+        this.bracketingRange = bracketingRange;
+    }
+
+    @Override
+    public PointValuePair maximize(final MultivariateFunction function, final double[] start, final double[] sigma,
+                                   final double[] lower, final double[] upper, final int maxEvaluations,
+                                   final ConvergenceChecker<PointValuePair> checker, final RandomGenerator random) {
+
+        final NonLinearConjugateGradientOptimizer optimizer = new NonLinearConjugateGradientOptimizer(formula, checker,
+                1e-8, 1e-8, bracketingRange);
+
+        // The optimizer only counts objective evaluations, so the gradient's are counted here too
+        final MultivariateFunction projected = new MultivariateFunction() {
+            private int evaluations = 0;
+            @Override
+            public double value(final double[] point) {
+                if (++evaluations > maxEvaluations)
+                    throw new TooManyEvaluationsException(maxEvaluations);
+                return function.value(project(point, lower, upper));
+            }
+        };
+
+        final PointValuePair optimum = optimizer.optimize(
+                GoalType.MAXIMIZE,
+                new ObjectiveFunction(projected),
+                new ObjectiveFunctionGradient(new MultivariateVectorFunction() {
+                    @Override
+                    public double[] value(final double[] point) {
+                        return gradient(projected, project(point, lower, upper), lower, upper);
+                    }
+                }),
+                new InitialGuess(project(start, lower, upper)),
+                new MaxEval(maxEvaluations),
+                new MaxIter(Integer.MAX_VALUE)
+        );
+
+        return new PointValuePair(project(optimum.getPointRef(), lower, upper), optimum.getValue());
+    }
+
+    private static double[] project(final double[] point, final double[] lower, final double[] upper) {
+        final double[] projected = new double[point.length];
+        for (int i = 0; i < point.length; ++i)
+            projected[i] = Math.min(Math.max(point[i], lower[i]), upper[i]);
+        return projected;
+    }
+
+    private double[] gradient(final MultivariateFunction function, final double[] point, final double[] lower, final double[] upper) {
+        final double[] gradient = new double[point.length];
+        final double[] x = point.clone();
+        for (int i = 0; i < point.length; ++i) {
+            final double h = gradientStep * Math.max(Math.abs(point[i]), 1.0);
+            final double forward = Math.min(point[i] + h, upper[i]);
+            final double backward = Math.max(point[i] - h, lower[i]);
+            x[i] = forward;
+            final double fForward = function.value(x);
+            x[i] = backward;
+            final double fBackward = function.value(x);
+            x[i] = point[i];
+            gradient[i] = (fForward - fBackward) / (forward - backward);
+        }
+        return gradient;
+    }
+
+    @Override
+    public boolean evaluatesBatches() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    static ConjugateGradientBackend parse(final XMLObject xo) throws XMLParseException {
+        final String formulaName = xo.getAttribute(FORMULA, POLAK_RIBIERE);
+        final NonLinearConjugateGradientOptimizer.Formula formula;
+        if (formulaName.equals(POLAK_RIBIERE))
+            formula = NonLinearConjugateGradientOptimizer.Formula.POLAK_RIBIERE;
+        else if (formulaName.equals(FLETCHER_REEVES))
+            formula = NonLinearConjugateGradientOptimizer.Formula.FLETCHER_REEVES;
+        else
+            throw new XMLParseException("unrecognized option for attribute, '" + FORMULA + "': " + formulaName);
+        final double gradientStep = xo.getAttribute(GRADIENT_STEP, 1e-6);
+        if (gradientStep <= 0)
+            throw new XMLParseException(GRADIENT_STEP + " must be positive");
+        final double bracketingRange = xo.getAttribute(BRACKETING_RANGE, 1e-8);
+        if (bracketingRange <= 0)
+            throw new XMLParseException(BRACKETING_RANGE + " must be positive");
+        return new ConjugateGradientBackend(formula, gradientStep, bracketingRange);
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * EvaluationTrace.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a CSV record (evaluation, time in milliseconds, the parameter values, log likelihood and evaluation time
+ * in nanoseconds) for every k-th evaluation, or for every improvement on the best so far. Records are handed to
+ * a background writer through a bounded queue, so evaluations only wait when the writer falls behind.
+ * Closing (as {@link MaximumLikelihood} does at the end of its run, so only the first run is traced) waits for
+ * the records to be written and throws any failure to write them. Replicas of a model graph made in the same process
+ * share the trace of the original while it is open, and are not traced once it is closed.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class EvaluationTrace implements Serializable {
+
+    private static final long serialVersionUID = 0L;
+
+    private static final long POLL_MILLISECONDS = 100;
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+    private static final Map<Integer, EvaluationTrace> open = new ConcurrentHashMap<Integer, EvaluationTrace>();
+
+    private static final Record END = new Record(null);
+
+    private final int id;
+    private final int every;
+    private final boolean improvementsOnly;
+    private final AtomicLong evaluationCount = new AtomicLong();
+    private final BlockingQueue<Record> queue;
+    private final Thread writerThread;
+    private double best = Double.NEGATIVE_INFINITY;
+    private volatile boolean closed = false;
+    private volatile IOException failure = null;
+
+    /**
+     * @param every the interval between recorded evaluations, unless only improvements are recorded
+     * @param capacity the number of records that may be waiting to be written
+     */
+    public EvaluationTrace(final File file, final String[] names, final int every, final boolean improvementsOnly,
+                           final int capacity) throws IOException {
+
+        this.every = every;
+        this.improvementsOnly = improvementsOnly;
+        queue = new ArrayBlockingQueue<Record>(capacity);
+
+        final Writer writer = new BufferedWriter(new FileWriter(file));
+        writer.write("evaluation,time");
+        for (final String name : names)
+            writer.write("," + name);
+        writer.write(",logLikelihood,nanoseconds\n");
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write(writer);
+            }
+        }, "EvaluationTrace-" + file.getName());
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        id = nextId.getAndIncrement();
+        open.put(id, this);
+    }
+
+    public void record(final double[] values, final double logLikelihood, final long nanoseconds) {
+
+        if (closed)
+            return;
+
+        final long evaluation = evaluationCount.incrementAndGet();
+
+        if (improvementsOnly) {
+            synchronized (this) {
+                if (!(logLikelihood > best))
+                    return;
+                best = logLikelihood;
+            }
+        } else if (evaluation % every != 0) {
+            return;
+        }
+
+        enqueue(new Record(evaluation, System.currentTimeMillis(), values, logLikelihood, nanoseconds));
+    }
+
+    /**
+     * Waits until the records so far are written out.
+     *
+     * @throws IOException if any record could not be written
+     */
+    public void flush() throws IOException {
+        final CountDownLatch flushed = new CountDownLatch(1);
+        if (!closed && enqueue(new Record(flushed))) {
+            try {
+                while (!flushed.await(POLL_MILLISECONDS, TimeUnit.MILLISECONDS) && writerThread.isAlive()) {
+                    // Wait
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Writes out any waiting records and closes the file. Further records are ignored.
+     *
+     * @throws IOException if any record could not be written
+     */
+    public void close() throws IOException {
+        if (open.remove(id) != null) {
+            closed = true;
+            if (enqueue(END)) {
+                try {
+                    writerThread.join();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Waits for room in the queue only while the writer is still taking records, as it stops after a close.
+     *
+     * @return whether the record was queued
+     */
+    private boolean enqueue(final Record record) {
+        try {
+            while (!queue.offer(record, POLL_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                if (!writerThread.isAlive())
+                    return false;
+            }
+            return true;
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void write(final Writer writer) {
+        try {
+            for (Record record = queue.take(); record != END; record = queue.take()) {
+                // After a failure, records are still taken (and discarded) so that evaluations do not block
+                if (failure == null) {
+                    try {
+                        if (record.flushed == null)
+                            record.write(writer);
+                        // Keep the file current whenever the writer catches up
+                        if (record.flushed != null || queue.isEmpty())
+                            writer.flush();
+                    } catch (final IOException ex) {
+                        failure = ex;
+                    }
+                }
+                if (record.flushed != null)
+                    record.flushed.countDown();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                writer.close();
+            } catch (final IOException ex) {
+                if (failure == null)
+                    failure = ex;
+            }
+        }
+    }
+
+    private Object writeReplace() {
+        return new Reference(id);
+    }
+
+    private static final class Reference implements Serializable {
+
+        private static final long serialVersionUID = 0L;
+
+        private final int id;
+
+        private Reference(final int id) {
+            this.id = id;
+        }
+
+        private Object readResolve() {
+            return open.get(id);
+        }
+
+    }
+
+    private static final class Record {
+
+        private final long evaluation;
+        private final long time;
+        private final double[] values;
+        private final double logLikelihood;
+        private final long nanoseconds;
+        private final CountDownLatch flushed;
+
+        private Record(final long evaluation, final long time, final double[] values, final double logLikelihood,
+                       final long nanoseconds) {
+            this.evaluation = evaluation;
+            this.time = time;
+            this.values = values;
+            this.logLikelihood = logLikelihood;
+            this.nanoseconds = nanoseconds;
+            flushed = null;
+        }
+
+        /**
+         * A marker that is counted down once the records before it are written out.
+         */
+        private Record(final CountDownLatch flushed) {
+            evaluation = 0;
+            time = 0;
+            values = null;
+            logLikelihood = 0;
+            nanoseconds = 0;
+            this.flushed = flushed;
+        }
+
+        private void write(final Writer writer) throws IOException {
+            final StringBuilder line = new StringBuilder();
+            line.append(evaluation).append(',').append(time);
+            for (final double v : values)
+                line.append(',').append(v);
+            line.append(',').append(logLikelihood).append(',').append(nanoseconds).append('\n');
+            writer.write(line.toString());
+        }
+
+    }
+
+}
@@ -48,9 +48,10 @@ public class HKYSkylineIntegrator extends Integrator {
     private final FrequencyModel frequencyModel;
     private final PiecewisePopulationModel populationModel;
 
-    private boolean betaKnown = false;
+    private volatile boolean betaKnown = false;
     private double beta;
     private double kappa;
+    private transient volatile PiecewiseConstantPopulation demographicFunction = null;
 
     public HKYSkylineIntegrator(final HKY hky, final PiecewisePopulationModel populationModel) {
         super("HKYSkylineIntegrator");
@@ -61,7 +62,13 @@ public class HKYSkylineIntegrator extends Integrator {
         addModel(populationModel);
     }
 
-    private void calculateBeta() {
+    public int getEpochCount() {
+        return populationModel.getDemographicFunction().getNumArguments();
+    }
+
+    private synchronized void calculateBeta() {
+        if (betaKnown)
+            return;
         kappa = hky.getKappa();
         final double freqA = frequencyModel.getFrequency(0);
         final double freqC = frequencyModel.getFrequency(1);
@@ -73,6 +80,30 @@ public class HKYSkylineIntegrator extends Integrator {
         betaKnown = true;
     }
 
+    /**
+     * The population model updates its demographic function whenever asked for it, so it is only asked once per change.
+     */
+    private synchronized PiecewiseConstantPopulation getDemographicFunction() {
+        if (demographicFunction == null)
+            demographicFunction = (PiecewiseConstantPopulation) populationModel.getDemographicFunction();
+        return demographicFunction;
+    }
+
+    @Override
+    public void prepare() {
+        calculateBeta();
+        getDemographicFunction();
+    }
+
+    @Override
+    protected boolean isEquivalent(final Integrator other) {
+        if (other instanceof HKYSkylineIntegrator) {
+            final HKYSkylineIntegrator integrator = (HKYSkylineIntegrator) other;
+            return integrator.hky == hky && integrator.populationModel == populationModel;
+        }
+        return false;
+    }
+
     @Override
     protected double calculateIntegratedProbability(final int iState, final double iTime, final int jState, final double jTime, final double mu) {
 
@@ -103,7 +134,9 @@ public class HKYSkylineIntegrator extends Integrator {
 
     private double integrateIntervals(final H H, final double start) {
 
-        final PiecewiseConstantPopulation df = (PiecewiseConstantPopulation) populationModel.getDemographicFunction();
+        PiecewiseConstantPopulation df = demographicFunction;
+        if (df == null)
+            df = getDemographicFunction();
         final int m = df.getNumArguments();
 
         int k;
@@ -167,13 +200,17 @@ public class HKYSkylineIntegrator extends Integrator {
     @Override
     protected void handleModelChangedEvent(Model model, Object o, int i) {
         super.handleModelChangedEvent(model, o, i);
-        betaKnown = false;
+        if (model == hky) // Beta does not depend on the population model
+            betaKnown = false;
+        else
+            demographicFunction = null;
     }
 
     @Override
     protected void handleVariableChangedEvent(Variable variable, int i, Variable.ChangeType changeType) {
         super.handleVariableChangedEvent(variable, i, changeType);
         betaKnown = false;
+        demographicFunction = null;
     }
 
     @Override
@@ -185,6 +222,7 @@ public class HKYSkylineIntegrator extends Integrator {
     protected void restoreState() {
         super.restoreState();
         betaKnown = false;
+        demographicFunction = null;
     }
 
     @Override
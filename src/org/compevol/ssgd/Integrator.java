@@ -30,15 +30,15 @@ import dr.inference.model.AbstractModel;
 import dr.inference.model.Model;
 import dr.inference.model.Variable;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Arman Bilge <armanbilge@gmail.com>
  */
 public abstract class Integrator extends AbstractModel {
 
-    private final Map<ParameterValue,Double> probabilities = new HashMap<ParameterValue,Double>();
+    private Map<ParameterValue,Double> probabilities = new ConcurrentHashMap<ParameterValue,Double>();
 
     public Integrator(String name) {
         super(name);
@@ -86,11 +86,42 @@ public abstract class Integrator extends AbstractModel {
     }
 
 
+    /**
+     * May be called concurrently, e.g. by partitions evaluated in parallel.
+     */
     public final double integratedProbability(int iState, double iTime, int jState, double jTime, double mu) {
         final ParameterValue value = new ParameterValue(iState, iTime, jState, jTime, mu);
-        if (!probabilities.containsKey(value))
-            probabilities.put(value, calculateIntegratedProbability(iState, iTime, jState, jTime, mu));
-        return probabilities.get(value);
+        final Double cached = probabilities.get(value);
+        if (cached != null)
+            return cached;
+        final double probability = calculateIntegratedProbability(iState, iTime, jState, jTime, mu);
+        probabilities.put(value, probability);
+        return probability;
+    }
+
+    /**
+     * Brings any state that is updated lazily when read, by this integrator or the models it depends on, up to date.
+     * {@link CompoundPairedLikelihood} calls this on its own thread before evaluating partitions concurrently.
+     */
+    public void prepare() {
+        // Nothing to do
+    }
+
+    /**
+     * Whether the other integrator always gives the same probabilities as this one, i.e. it depends on the same models.
+     */
+    protected boolean isEquivalent(Integrator other) {
+        return other == this;
+    }
+
+    /**
+     * Uses the cache of an equivalent integrator, so probabilities calculated by either are reused by both.
+     * Each clears the shared cache on its own events, which are the same for both.
+     */
+    public void shareCache(Integrator other) {
+        if (!isEquivalent(other))
+            throw new IllegalArgumentException("Only equivalent integrators can share a cache.");
+        probabilities = other.probabilities;
     }
 
     protected abstract double calculateIntegratedProbability(int iState, double iTime, int jState, double jTime, double mu);
@@ -0,0 +1,132 @@
+/*
+ * LambertFormatAppender.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.evolution.util.Taxa;
+import dr.evolution.util.TaxonList;
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extends a dataset previously produced by {@link LambertFormatParser} with additional records,
+ * counting only the pairs that involve at least one of the new records.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class LambertFormatAppender extends AbstractXMLObjectParser {
+
+    private static final String FILENAME = "filename";
+    private static final String EXISTING = "existing";
+
+    @Override
+    public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
+
+        final File serializationFile = new File(xo.getId());
+        if (serializationFile.exists())
+            return LambertFormatParser.readObject(serializationFile);
+
+        final String existing = xo.getStringAttribute(EXISTING);
+        final File existingRecordsFile = new File(existing + LambertFormatParser.RECORDS_SUFFIX);
+        if (!existingRecordsFile.exists())
+            throw new XMLParseException("Could not find the encoded sequences for " + existing);
+
+        final PairedPatterns existingPatterns = (PairedPatterns) LambertFormatParser.readObject(new File(existing));
+        @SuppressWarnings("unchecked")
+        final ArrayList<LambertFormatParser.SequenceRecord> records =
+                (ArrayList<LambertFormatParser.SequenceRecord>) LambertFormatParser.readObject(existingRecordsFile);
+
+        final PairedPatterns patterns = append(existingPatterns, records, (TaxonList) xo.getChild(TaxonList.class),
+                LambertFormatParser.readRecords(new File(xo.getStringAttribute(FILENAME))));
+
+        LambertFormatParser.writeObject(serializationFile, patterns);
+        LambertFormatParser.writeObject(new File(xo.getId() + LambertFormatParser.RECORDS_SUFFIX), records);
+
+        return patterns;
+    }
+
+    /**
+     * Adds the new taxa and records to the existing patterns, whose records are also given and are extended in place.
+     *
+     * @return patterns equal to those counted from all the records at once
+     */
+    static PairedPatterns append(final PairedPatterns existingPatterns, final List<LambertFormatParser.SequenceRecord> records,
+                                 final TaxonList newTaxa, final List<LambertFormatParser.SequenceRecord> newRecords)
+            throws XMLParseException {
+
+        final TaxonList existingTaxa = existingPatterns.getTaxa();
+
+        final Taxa taxa = new Taxa();
+        for (int i = 0; i < existingTaxa.getTaxonCount(); ++i)
+            taxa.addTaxon(existingTaxa.getTaxon(i));
+        for (int i = 0; i < newTaxa.getTaxonCount(); ++i) {
+            if (existingTaxa.getTaxonIndex(newTaxa.getTaxonId(i)) != -1)
+                throw new XMLParseException("Taxon " + newTaxa.getTaxonId(i) + " is already in the existing patterns");
+            taxa.addTaxon(newTaxa.getTaxon(i));
+        }
+
+        final PairedPatterns patterns = existingPatterns.extend(taxa);
+
+        final int start = records.size();
+        records.addAll(newRecords);
+
+        LambertFormatParser.countPairs(patterns, records, start);
+
+        return patterns;
+    }
+
+    private final XMLSyntaxRule[] rules = {AttributeRule.newStringRule(FILENAME),
+            AttributeRule.newStringRule(EXISTING),
+            new ElementRule(TaxonList.class)};
+
+    @Override
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    @Override
+    public String getParserDescription() {
+        return "Appends the records of a file in Lambert format to an existing PairedPatterns summary.";
+    }
+
+    @Override
+    public Class getReturnType() {
+        return PairedPatterns.class;
+    }
+
+    @Override
+    public String getParserName() {
+        return "appendLambertFormat";
+    }
+}
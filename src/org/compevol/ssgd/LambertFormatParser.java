@@ -27,7 +27,6 @@
 package org.compevol.ssgd;
 
 import dr.evolution.datatype.Nucleotides;
-import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
 import dr.xml.AbstractXMLObjectParser;
 import dr.xml.AttributeRule;
@@ -44,10 +43,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.StringTokenizer;
 
 /**
@@ -57,90 +55,122 @@ public class LambertFormatParser extends AbstractXMLObjectParser {
 
     private static final String FILENAME = "filename";
 
+    static final String RECORDS_SUFFIX = ".records";
+
     @Override
     public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
 
         final File serializationFile = new File(xo.getId());
-        if (serializationFile.exists()) {
+        if (serializationFile.exists())
+            return readObject(serializationFile);
+
+        final TaxonList taxonList = (TaxonList) xo.getChild(TaxonList.class);
+
+        final PairedPatterns patterns = new PairedPatterns(Nucleotides.INSTANCE, taxonList);
+        final ArrayList<SequenceRecord> records = readRecords(new File(xo.getStringAttribute(FILENAME)));
+
+        countPairs(patterns, records, 0);
+
+        writeObject(serializationFile, patterns);
+        writeObject(new File(xo.getId() + RECORDS_SUFFIX), records);
+
+        return patterns;
+    }
+
+    static ArrayList<SequenceRecord> readRecords(final File file) throws XMLParseException {
+        try {
+            final BufferedReader br = new BufferedReader(new FileReader(file));
+            final ArrayList<SequenceRecord> records = new ArrayList<SequenceRecord>();
             try {
-                final ObjectInputStream in = new ObjectInputStream(new FileInputStream(serializationFile));
-                try {
-                    return in.readObject();
-                } catch (final ClassNotFoundException ex) {
-                    throw new XMLParseException(ex.getMessage());
-                } finally {
-                    in.close();
-                }
-            } catch (final IOException ex) {
-                throw new XMLParseException(ex.getMessage());
+                String line;
+                while ((line = br.readLine()) != null)
+                    records.add(new SequenceRecord(line));
+            } finally {
+                br.close();
             }
+            return records;
+        } catch (final IOException ex) {
+            throw new XMLParseException(ex.getMessage());
         }
+    }
 
-        final TaxonList taxonList = (TaxonList) xo.getChild(TaxonList.class);
+    /**
+     * Counts every pair of records in which the later record has index at least start.
+     * Pairs among the first start records are assumed to already be counted in patterns.
+     */
+    static void countPairs(final PairedPatterns patterns, final List<SequenceRecord> records, final int start) throws XMLParseException {
 
-        final Map<String,Taxon> taxa = new HashMap<String,Taxon>(taxonList.getTaxonCount());
-        for (int i = 0; i < taxonList.getTaxonCount(); ++i)
-            taxa.put(taxonList.getTaxonId(i), taxonList.getTaxon(i));
+        final TaxonList taxa = patterns.getTaxa();
+        final int N = records.size();
 
-        final File file = new File(xo.getStringAttribute(FILENAME));
-        final PairedPatterns patterns = new PairedPatterns(Nucleotides.INSTANCE, taxonList);
+        final int[] indices = new int[N];
+        for (int i = 0; i < N; ++i) {
+            indices[i] = taxa.getTaxonIndex(records.get(i).getTaxonName());
+            if (indices[i] == -1)
+                throw new XMLParseException("Unknown taxon " + records.get(i).getTaxonName());
+        }
 
-        try {
+        for (int j = Math.max(start, 1); j < N; ++j) {
 
-            final BufferedReader br = new BufferedReader(new FileReader(file));
-            final List<SequenceRecord> records = new ArrayList<SequenceRecord>();
-            String line;
-            while ((line = br.readLine()) != null)
-                records.add(new SequenceRecord(line));
-            br.close();
+            final SequenceRecord y = records.get(j);
+            final int n = indices[j];
 
-            final int N = records.size();
+            for (int i = 0; i < j; ++i) {
 
-            for (int i = 0; i < N; ++i) {
                 final SequenceRecord x = records.get(i);
-                final Taxon a = taxa.get(x.getTaxonName());
+                final int m = indices[i];
 
-                for (int j = i+1; j < N; ++j) {
+                patterns.addPattern(m, Nucleotides.A_STATE, n, Nucleotides.A_STATE, x.getACount());
+                patterns.addPattern(m, Nucleotides.C_STATE, n, Nucleotides.C_STATE, x.getCCount());
+                patterns.addPattern(m, Nucleotides.G_STATE, n, Nucleotides.G_STATE, x.getGCount());
+                patterns.addPattern(m, Nucleotides.UT_STATE, n, Nucleotides.UT_STATE, x.getTCount());
 
-                    final SequenceRecord y = records.get(j);
-                    final Taxon b = taxa.get(y.getTaxonName());
+                final byte[] xStates = x.getStates();
+                final byte[] yStates = y.getStates();
+                for (int k = 0; k < xStates.length; ++k)
+                    patterns.addPattern(m, xStates[k], n, yStates[k], 1);
 
-                    patterns.addPattern(a, Nucleotides.A_STATE, b, Nucleotides.A_STATE, x.getACount());
-                    patterns.addPattern(a, Nucleotides.C_STATE, b, Nucleotides.C_STATE, x.getCCount());
-                    patterns.addPattern(a, Nucleotides.G_STATE, b, Nucleotides.G_STATE, x.getGCount());
-                    patterns.addPattern(a, Nucleotides.UT_STATE, b, Nucleotides.UT_STATE, x.getTCount());
+            }
 
-                    for (int k = 0; k < x.getSequence().length(); ++k)
-                        patterns.addPattern(a, Nucleotides.INSTANCE.getState(x.getSequence().charAt(k)),
-                                b, Nucleotides.INSTANCE.getState(y.getSequence().charAt(k)));
+        }
 
-                }
+    }
 
+    static Object readObject(final File file) throws XMLParseException {
+        try {
+            final ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+            try {
+                return in.readObject();
+            } catch (final ClassNotFoundException ex) {
+                throw new XMLParseException(ex.getMessage());
+            } finally {
+                in.close();
             }
-
         } catch (final IOException ex) {
             throw new XMLParseException(ex.getMessage());
         }
+    }
 
+    static void writeObject(final File file, final Object object) throws XMLParseException {
         try {
-            final ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(serializationFile));
+            final ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
             try {
-                out.writeObject(patterns);
+                out.writeObject(object);
             } finally {
                 out.close();
             }
         } catch (final IOException ex) {
             throw new XMLParseException(ex.getMessage());
         }
-
-        return patterns;
     }
 
-    private static final class SequenceRecord {
+    static final class SequenceRecord implements Serializable {
+
+        private static final long serialVersionUID = 0L;
 
         private final String taxon;
         private final long A, T, G, C;
-        private final String sequence;
+        private final byte[] states;
 
         public SequenceRecord(final String l) {
             final StringTokenizer st = new StringTokenizer(l, ",");
@@ -149,7 +179,10 @@ public class LambertFormatParser extends AbstractXMLObjectParser {
             T = Long.parseLong(st.nextToken());
             G = Long.parseLong(st.nextToken());
             C = Long.parseLong(st.nextToken());
-            sequence = st.nextToken();
+            final String sequence = st.nextToken();
+            states = new byte[sequence.length()];
+            for (int i = 0; i < states.length; ++i)
+                states[i] = (byte) Nucleotides.INSTANCE.getState(sequence.charAt(i));
         }
 
         public String getTaxonName() {
@@ -172,8 +205,8 @@ public class LambertFormatParser extends AbstractXMLObjectParser {
             return C;
         }
 
-        public String getSequence() {
-            return sequence;
+        public byte[] getStates() {
+            return states;
         }
 
     }
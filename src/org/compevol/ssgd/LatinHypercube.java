@@ -0,0 +1,89 @@
+/*
+ * LatinHypercube.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Space-filling designs for starting points: each dimension is cut into as many strata as there are points
+ * and every stratum holds exactly one point. Dimensions with finite bounds are stratified between them;
+ * otherwise a box spanning a factor of ten either side of the centre (on a log scale for positive dimensions) is used.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public final class LatinHypercube {
+
+    private static final double SPAN = 10.0;
+
+    private LatinHypercube() {
+        // No instances
+    }
+
+    public static double[][] sample(final RandomGenerator random, final int count, final double[] centre,
+                                    final double[] lower, final double[] upper) {
+
+        final int dimension = centre.length;
+        final double[][] points = new double[count][dimension];
+        final int[] strata = new int[count];
+
+        for (int i = 0; i < dimension; ++i) {
+
+            final boolean log;
+            double a, b;
+            if (!Double.isInfinite(lower[i]) && !Double.isInfinite(upper[i])) {
+                log = false;
+                a = lower[i];
+                b = upper[i];
+            } else if (centre[i] > 0 && lower[i] >= 0) {
+                log = true;
+                a = Math.log(Math.max(centre[i] / SPAN, lower[i]));
+                b = Math.log(Math.min(centre[i] * SPAN, upper[i]));
+            } else {
+                log = false;
+                final double span = SPAN * Math.max(Math.abs(centre[i]), 1.0);
+                a = Math.max(centre[i] - span, lower[i]);
+                b = Math.min(centre[i] + span, upper[i]);
+            }
+
+            // A random permutation of the strata
+            for (int k = 0; k < count; ++k) {
+                final int j = random.nextInt(k + 1);
+                strata[k] = strata[j];
+                strata[j] = k;
+            }
+
+            for (int k = 0; k < count; ++k) {
+                final double x = a + (strata[k] + random.nextDouble()) / count * (b - a);
+                points[k][i] = Math.min(Math.max(log ? Math.exp(x) : x, lower[i]), upper[i]);
+            }
+
+        }
+
+        return points;
+    }
+
+}
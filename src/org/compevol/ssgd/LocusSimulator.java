@@ -0,0 +1,268 @@
+/*
+ * LocusSimulator.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.evolution.coalescent.DemographicFunction;
+import dr.evolution.util.TaxonList;
+import dr.evomodel.sitemodel.SiteModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Simulates a single locus under the coalescent and counts its paired patterns.
+ * States are evolved into byte arrays, only keeping internal sequences until both children are done,
+ * and the tip sequences are packed into one bit set per state so that each pair is counted with popcounts.
+ * All randomness comes from the generator passed to {@link #simulate}, so instances
+ * can be used concurrently as long as each thread has its own.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class LocusSimulator implements PairedPatternsSimulator.Locus {
+
+    private final DemographicFunction demographicFunction;
+    private final SiteModel siteModel;
+    private final SubstitutionModel substitutionModel;
+    private final int stateCount;
+    private final int locusLength;
+    private final int taxonCount;
+    private final int wordCount;
+
+    private final double[] tipHeights;
+    private final int[] tipOrder;
+    private final double[] cumulativeFrequencies;
+    private final double[] cumulativeProportions;
+
+    private final double[] heights;
+    private final int[] leftChildren;
+    private final int[] rightChildren;
+    private final int[] lineages;
+    private final byte[][] sequences;
+    private final byte[][] sequencePool;
+    private int pooled = 0;
+    private final byte[] categories;
+    private final double[][] transitionProbabilities;
+    private final long[][][] tipBits;
+    private final double[] counts;
+
+    public LocusSimulator(final TaxonList taxa, final DemographicFunction demographicFunction, final SiteModel siteModel, final int locusLength) {
+
+        this.demographicFunction = demographicFunction;
+        this.siteModel = siteModel;
+        substitutionModel = siteModel.getSubstitutionModel();
+        stateCount = substitutionModel.getDataType().getStateCount();
+        this.locusLength = locusLength;
+        taxonCount = taxa.getTaxonCount();
+        wordCount = (locusLength + 63) / 64;
+
+        tipHeights = new double[taxonCount];
+        final Integer[] order = new Integer[taxonCount];
+        for (int i = 0; i < taxonCount; ++i) {
+            tipHeights[i] = taxa.getTaxon(i).getHeight();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return Double.compare(tipHeights[a], tipHeights[b]);
+            }
+        });
+        tipOrder = new int[taxonCount];
+        for (int i = 0; i < taxonCount; ++i)
+            tipOrder[i] = order[i];
+
+        cumulativeFrequencies = cumulative(siteModel.getFrequencyModel().getFrequencies());
+
+        final double[] proportions = new double[siteModel.getCategoryCount()];
+        for (int c = 0; c < proportions.length; ++c)
+            proportions[c] = siteModel.getProportionForCategory(c);
+        cumulativeProportions = cumulative(proportions);
+
+        final int nodeCount = 2 * taxonCount - 1;
+        heights = new double[nodeCount];
+        leftChildren = new int[nodeCount];
+        rightChildren = new int[nodeCount];
+        lineages = new int[taxonCount];
+        sequences = new byte[nodeCount][];
+        for (int i = 0; i < taxonCount; ++i)
+            sequences[i] = new byte[locusLength];
+        sequencePool = new byte[taxonCount][];
+        categories = new byte[locusLength];
+        transitionProbabilities = new double[proportions.length][stateCount * stateCount];
+        tipBits = new long[taxonCount][stateCount][wordCount];
+        counts = new double[stateCount * stateCount];
+    }
+
+    @Override
+    public void simulate(final RandomGenerator random, final PairedPatterns patterns) {
+
+        final int root = simulateTree(random);
+        simulateSequences(random, root);
+
+        for (int m = 0; m < taxonCount; ++m) {
+            final byte[] x = sequences[m];
+            final long[][] bits = tipBits[m];
+            for (final long[] stateBits : bits)
+                Arrays.fill(stateBits, 0);
+            for (int l = 0; l < locusLength; ++l)
+                bits[x[l]][l >>> 6] |= 1L << l;
+        }
+
+        for (int m = 0; m < taxonCount; ++m) {
+            final long[][] x = tipBits[m];
+            for (int n = m + 1; n < taxonCount; ++n) {
+                final long[][] y = tipBits[n];
+                for (int i = 0; i < stateCount; ++i) {
+                    final long[] xi = x[i];
+                    for (int j = 0; j < stateCount; ++j) {
+                        final long[] yj = y[j];
+                        int count = 0;
+                        for (int w = 0; w < wordCount; ++w)
+                            count += Long.bitCount(xi[w] & yj[w]);
+                        counts[stateCount * i + j] = count;
+                    }
+                }
+                patterns.addPairCounts(m, n, counts);
+            }
+        }
+    }
+
+    private int simulateTree(final RandomGenerator random) {
+
+        System.arraycopy(tipHeights, 0, heights, 0, taxonCount);
+
+        int lineageCount = 0;
+        int sampled = 0;
+        int next = taxonCount;
+        double t = tipHeights[tipOrder[0]];
+
+        while (sampled < taxonCount || lineageCount > 1) {
+
+            while (sampled < taxonCount && tipHeights[tipOrder[sampled]] <= t)
+                lineages[lineageCount++] = tipOrder[sampled++];
+
+            final double nextSample = sampled < taxonCount ? tipHeights[tipOrder[sampled]] : Double.POSITIVE_INFINITY;
+
+            if (lineageCount < 2) {
+                t = nextSample;
+                continue;
+            }
+
+            final double pairs = lineageCount * (lineageCount - 1) / 2.0;
+            final double coalescence;
+            synchronized (demographicFunction) {
+                coalescence = demographicFunction.getInverseIntensity(demographicFunction.getIntensity(t) - Math.log(random.nextDouble()) / pairs);
+            }
+
+            if (coalescence > nextSample) {
+                t = nextSample;
+                continue;
+            }
+
+            final int i = random.nextInt(lineageCount);
+            int j = random.nextInt(lineageCount - 1);
+            if (j >= i) ++j;
+
+            heights[next] = coalescence;
+            leftChildren[next] = lineages[i];
+            rightChildren[next] = lineages[j];
+            lineages[Math.min(i, j)] = next;
+            lineages[Math.max(i, j)] = lineages[--lineageCount];
+            ++next;
+            t = coalescence;
+        }
+
+        return next - 1;
+    }
+
+    private void simulateSequences(final RandomGenerator random, final int root) {
+
+        final byte[] rootSequence = allocate(root);
+        for (int l = 0; l < locusLength; ++l) {
+            rootSequence[l] = (byte) draw(random, cumulativeFrequencies, 0, cumulativeFrequencies.length);
+            categories[l] = (byte) draw(random, cumulativeProportions, 0, cumulativeProportions.length);
+        }
+
+        // Internal nodes are created in order of increasing height so parents always follow their children
+        for (int v = root; v >= taxonCount; --v) {
+            evolve(random, v, leftChildren[v]);
+            evolve(random, v, rightChildren[v]);
+            // Both children have their states so this sequence can be reused
+            sequencePool[pooled++] = sequences[v];
+            sequences[v] = null;
+        }
+    }
+
+    private byte[] allocate(final int node) {
+        if (node < taxonCount)
+            return sequences[node];
+        final byte[] sequence = pooled > 0 ? sequencePool[--pooled] : new byte[locusLength];
+        sequences[node] = sequence;
+        return sequence;
+    }
+
+    private void evolve(final RandomGenerator random, final int parent, final int child) {
+
+        final double branchLength = heights[parent] - heights[child];
+        synchronized (substitutionModel) {
+            for (int c = 0; c < transitionProbabilities.length; ++c) {
+                final double[] P = transitionProbabilities[c];
+                substitutionModel.getTransitionProbabilities(branchLength * siteModel.getRateForCategory(c), P);
+                for (int i = 0; i < stateCount; ++i)
+                    for (int j = 1; j < stateCount; ++j)
+                        P[i * stateCount + j] += P[i * stateCount + j - 1];
+            }
+        }
+
+        final byte[] parentSequence = sequences[parent];
+        final byte[] childSequence = allocate(child);
+        for (int l = 0; l < locusLength; ++l)
+            childSequence[l] = (byte) draw(random, transitionProbabilities[categories[l]], parentSequence[l] * stateCount, stateCount);
+    }
+
+    private static int draw(final RandomGenerator random, final double[] cumulative, final int offset, final int length) {
+        final double u = random.nextDouble() * cumulative[offset + length - 1];
+        for (int i = 0; i < length - 1; ++i) {
+            if (u < cumulative[offset + i])
+                return i;
+        }
+        return length - 1;
+    }
+
+    private static double[] cumulative(final double[] x) {
+        final double[] cumulative = new double[x.length];
+        double sum = 0;
+        for (int i = 0; i < x.length; ++i) {
+            sum += x[i];
+            cumulative[i] = sum;
+        }
+        return cumulative;
+    }
+
+}
@@ -26,53 +26,261 @@
 
 package org.compevol.ssgd;
 
+import dr.inference.model.Bounds;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Parameter;
 import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
 import dr.xml.ElementRule;
 import dr.xml.XMLObject;
 import dr.xml.XMLObjectParser;
 import dr.xml.XMLParseException;
 import dr.xml.XMLSyntaxRule;
-import org.apache.commons.math3.analysis.MultivariateFunction;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
 
 /**
+ * A multivariate function view for a likelihood, whose arguments are mapped to the values of the parameters
+ * by per-dimension transforms. By default every value is its argument times its initial value.
+ *
  * @author Arman Bilge <armanbilge@gmail.com>
  */
-public class LogLikelihoodFunction implements MultivariateFunction {
+public class LogLikelihoodFunction implements TransformedFunction, Serializable {
+
+    private static final long serialVersionUID = 0L;
 
     private final Likelihood function;
     private final Parameter variables;
-    private final double[] scale;
+    private final ParameterTransform[] transforms;
+    private EvaluationTrace trace = null;
 
     public LogLikelihoodFunction(final Likelihood function, final Parameter variables) {
         this.function = function;
         this.variables = variables;
-        scale = variables.getParameterValues();
+        transforms = new ParameterTransform[variables.getDimension()];
+        for (int i = 0; i < transforms.length; ++i)
+            transforms[i] = new ParameterTransform.Scale(Math.abs(variables.getParameterValue(i)));
+    }
+
+    @Override
+    public ParameterTransform getTransform(final int dimension) {
+        return transforms[dimension];
+    }
+
+    public void setTransform(final int dimension, final ParameterTransform transform) {
+        transforms[dimension] = transform;
+    }
+
+    /**
+     * Evaluations are not traced unless a trace is given.
+     */
+    public void setTrace(final EvaluationTrace trace) {
+        this.trace = trace;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (trace != null) {
+            final EvaluationTrace closed = trace;
+            trace = null;
+            closed.close();
+        }
     }
 
     @Override
     public double value(final double[] args) {
-        for (int i = 0; i < variables.getDimension(); ++i)
-            variables.setParameterValue(i, args[i] * scale[i]);
+        ParameterUpdates.setParameterValues(variables, toValues(args));
+        if (trace == null)
+            return function.getLogLikelihood();
+        final long start = System.nanoTime();
         final double logL = function.getLogLikelihood();
-        System.out.println(variables);
-        System.out.println(logL);
+        trace.record(variables.getParameterValues(), logL, System.nanoTime() - start);
         return logL;
     }
 
+    @Override
+    public double[] toArguments(final double[] values) {
+        final double[] args = new double[values.length];
+        for (int i = 0; i < values.length; ++i)
+            args[i] = transforms[i].toArgument(values[i]);
+        return args;
+    }
+
+    @Override
+    public double[] toValues(final double[] args) {
+        final double[] values = new double[args.length];
+        for (int i = 0; i < args.length; ++i)
+            values[i] = transforms[i].toValue(args[i]);
+        return values;
+    }
+
+    @Override
+    public double[] getLowerBounds() {
+        final Bounds<Double> bounds = variables.getBounds();
+        final double[] lower = new double[transforms.length];
+        for (int i = 0; i < lower.length; ++i)
+            lower[i] = transforms[i].toArgument(bounds.getLowerLimit(i));
+        return lower;
+    }
+
+    @Override
+    public double[] getUpperBounds() {
+        final Bounds<Double> bounds = variables.getBounds();
+        final double[] upper = new double[transforms.length];
+        for (int i = 0; i < upper.length; ++i)
+            upper[i] = transforms[i].toArgument(bounds.getUpperLimit(i));
+        return upper;
+    }
+
+    @Override
+    public double[] gradientToArguments(final double[] args, final double[] gradient) {
+        final double[] result = new double[args.length];
+        for (int i = 0; i < args.length; ++i)
+            result[i] = gradient[i] * transforms[i].derivative(args[i]);
+        return result;
+    }
+
+    @Override
+    public double[][] hessianToArguments(final double[] args, final double[] gradient, final double[][] hessian) {
+        final int dimension = args.length;
+        final double[] derivatives = new double[dimension];
+        for (int i = 0; i < dimension; ++i)
+            derivatives[i] = transforms[i].derivative(args[i]);
+        final double[][] result = new double[dimension][dimension];
+        for (int i = 0; i < dimension; ++i) {
+            for (int j = 0; j < dimension; ++j)
+                result[i][j] = derivatives[i] * hessian[i][j] * derivatives[j];
+            result[i][i] += gradient[i] * transforms[i].secondDerivative(args[i]);
+        }
+        return result;
+    }
+
     public static final XMLObjectParser PARSER = new AbstractXMLObjectParser() {
 
+        private static final String TRANSFORM = "transform";
+        private static final String TYPE = "type";
+        private static final String DIMENSIONS = "dimensions";
+        private static final String SCALE = "scale";
+        private static final String LOG = "log";
+        private static final String LOGIT = "logit";
+        private static final String AFFINE = "affine";
+        private static final String LOWER = "lower";
+        private static final String UPPER = "upper";
+        private static final String OFFSET = "offset";
+        private static final String TRACE = "trace";
+        private static final String TRACE_EVERY = "traceEvery";
+        private static final String TRACE_IMPROVEMENTS = "traceImprovements";
+        private static final String TRACE_BUFFER = "traceBuffer";
+
         @Override
         public Object parseXMLObject(XMLObject xo) throws XMLParseException {
-            return new LogLikelihoodFunction((Likelihood) xo.getChild(Likelihood.class), (Parameter) xo.getChild(Parameter.class));
+
+            final Parameter variables = (Parameter) xo.getChild(Parameter.class);
+            final LogLikelihoodFunction function = new LogLikelihoodFunction((Likelihood) xo.getChild(Likelihood.class), variables);
+
+            for (int c = 0; c < xo.getChildCount(); ++c) {
+
+                if (!(xo.getChild(c) instanceof XMLObject) || !((XMLObject) xo.getChild(c)).getName().equals(TRANSFORM))
+                    continue;
+                final XMLObject cxo = (XMLObject) xo.getChild(c);
+
+                final int[] dimensions;
+                if (cxo.hasAttribute(DIMENSIONS)) {
+                    dimensions = cxo.getIntegerArrayAttribute(DIMENSIONS);
+                } else {
+                    dimensions = new int[variables.getDimension()];
+                    for (int i = 0; i < dimensions.length; ++i)
+                        dimensions[i] = i + 1;
+                }
+
+                final String type = cxo.getStringAttribute(TYPE);
+                for (final int d : dimensions) {
+
+                    if (d < 1 || d > variables.getDimension())
+                        throw new XMLParseException("Dimension " + d + " is out of range for " + variables.getId());
+                    final int i = d - 1;
+                    final double value = variables.getParameterValue(i);
+
+                    final ParameterTransform transform;
+                    if (type.equals(SCALE)) {
+                        final double scale = cxo.getAttribute(SCALE, Math.abs(value));
+                        if (cxo.hasAttribute(SCALE) && scale <= 0)
+                            throw new XMLParseException(SCALE + " must be positive");
+                        transform = new ParameterTransform.Scale(scale);
+                    } else if (type.equals(LOG)) {
+                        transform = new ParameterTransform.Log();
+                    } else if (type.equals(LOGIT)) {
+                        // The interval defaults to the bounds of the parameter, if finite, or to the unit interval
+                        final double lowerBound = variables.getBounds().getLowerLimit(i);
+                        final double upperBound = variables.getBounds().getUpperLimit(i);
+                        final boolean finite = !Double.isInfinite(lowerBound) && !Double.isInfinite(upperBound);
+                        final double lower = cxo.getAttribute(LOWER, finite ? lowerBound : 0.0);
+                        final double upper = cxo.getAttribute(UPPER, finite ? upperBound : 1.0);
+                        if (!(lower < upper))
+                            throw new XMLParseException(LOWER + " must be less than " + UPPER);
+                        if (!(value > lower && value < upper))
+                            throw new XMLParseException("The initial value of dimension " + d + " must be strictly between "
+                                    + lower + " and " + upper + " for a " + LOGIT + " transform");
+                        transform = new ParameterTransform.Logit(lower, upper);
+                    } else if (type.equals(AFFINE)) {
+                        final double scale = cxo.getAttribute(SCALE, 1.0);
+                        if (scale <= 0)
+                            throw new XMLParseException(SCALE + " must be positive");
+                        transform = new ParameterTransform.Affine(cxo.getAttribute(OFFSET, 0.0), scale);
+                    } else {
+                        throw new XMLParseException("unrecognized option for attribute, '" + TYPE + "': " + type);
+                    }
+
+                    if (type.equals(LOG) && !(value > 0))
+                        throw new XMLParseException("The initial value of dimension " + d + " must be positive for a "
+                                + LOG + " transform");
+
+                    function.setTransform(i, transform);
+                }
+
+            }
+
+            if (xo.hasAttribute(TRACE)) {
+                final int every = xo.getAttribute(TRACE_EVERY, 1);
+                if (every < 1)
+                    throw new XMLParseException(TRACE_EVERY + " must be positive");
+                final int buffer = xo.getAttribute(TRACE_BUFFER, 1024);
+                if (buffer < 1)
+                    throw new XMLParseException(TRACE_BUFFER + " must be positive");
+                final String[] names = new String[variables.getDimension()];
+                for (int i = 0; i < names.length; ++i)
+                    names[i] = variables.getDimensionName(i);
+                try {
+                    function.setTrace(new EvaluationTrace(new File(xo.getStringAttribute(TRACE)), names, every,
+                            xo.getAttribute(TRACE_IMPROVEMENTS, false), buffer));
+                } catch (final IOException ex) {
+                    throw new XMLParseException(ex.getMessage());
+                }
+            } else if (xo.hasAttribute(TRACE_EVERY) || xo.hasAttribute(TRACE_IMPROVEMENTS) || xo.hasAttribute(TRACE_BUFFER)) {
+                throw new XMLParseException(TRACE_EVERY + ", " + TRACE_IMPROVEMENTS + " and " + TRACE_BUFFER + " require a " + TRACE);
+            }
+
+            return function;
         }
 
         @Override
         public XMLSyntaxRule[] getSyntaxRules() {
             return rules;
         }
-        final XMLSyntaxRule[] rules = {new ElementRule(Likelihood.class), new ElementRule(Parameter.class)};
+        final XMLSyntaxRule[] rules = {new ElementRule(Likelihood.class), new ElementRule(Parameter.class),
+                AttributeRule.newStringRule(TRACE, true),
+                AttributeRule.newIntegerRule(TRACE_EVERY, true),
+                AttributeRule.newBooleanRule(TRACE_IMPROVEMENTS, true),
+                AttributeRule.newIntegerRule(TRACE_BUFFER, true),
+                new ElementRule(TRANSFORM, new XMLSyntaxRule[]{
+                        AttributeRule.newStringRule(TYPE),
+                        AttributeRule.newIntegerArrayRule(DIMENSIONS, true),
+                        AttributeRule.newDoubleRule(SCALE, true),
+                        AttributeRule.newDoubleRule(OFFSET, true),
+                        AttributeRule.newDoubleRule(LOWER, true),
+                        AttributeRule.newDoubleRule(UPPER, true)
+                }, 0, Integer.MAX_VALUE)};
 
         @Override
         public String getParserDescription() {
@@ -29,8 +29,8 @@ package org.compevol.ssgd;
 import dr.inference.model.Bounds;
 import dr.inference.model.Parameter;
 import dr.math.MachineAccuracy;
-import dr.math.MathUtils;
 import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
 import dr.xml.ElementRule;
 import dr.xml.Spawnable;
 import dr.xml.XMLObject;
@@ -38,131 +38,747 @@ import dr.xml.XMLObjectParser;
 import dr.xml.XMLParseException;
 import dr.xml.XMLSyntaxRule;
 import org.apache.commons.math3.analysis.MultivariateFunction;
-import org.apache.commons.math3.optim.InitialGuess;
-import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.exception.TooManyIterationsException;
 import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.optim.SimpleBounds;
 import org.apache.commons.math3.optim.SimplePointChecker;
-import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
-import org.apache.commons.math3.optim.nonlinear.scalar.MultivariateOptimizer;
-import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
-import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer;
 import org.apache.commons.math3.random.RandomGenerator;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Arman Bilge <armanbilge@gmail.com>
  */
-public class MaximumLikelihood implements Spawnable {
+public class MaximumLikelihood implements Spawnable, Serializable {
 
-    private final MultivariateOptimizer optimizer;
-    private final MultivariateFunction likelihood;
+    private static final long serialVersionUID = 0L;
+
+    private static final double DEFAULT_WARM_START_SIGMA = 0.1;
+
+    private final TransformedFunction likelihood;
     private final Parameter variables;
     private final double[] initial;
 
-    public MaximumLikelihood(final MultivariateFunction likelihood, final Parameter variables) {
+    private int threadCount = 1;
+    private int startCount = 1;
+    private int abandonAfter = 0;
+    private double abandonMargin = 10.0;
+    private int maxEvaluations = Integer.MAX_VALUE;
+    private double maxTime = 0;
+    private int window = 0;
+    private double windowRelativeTolerance = 0;
+    private double windowAbsoluteTolerance = 0;
+    private double progressInterval = 0;
+    private double relativeTolerance = MachineAccuracy.SQRT_EPSILON;
+    private double absoluteTolerance = MachineAccuracy.EPSILON;
+
+    private OptimizerBackend backend = new CMAESBackend();
+
+    private boolean warmStart = false;
+    private double warmStartScale = 1.0;
+    private double[] warmStartPoint = null;
+    private double[] warmStartSigma = null;
+
+    private transient RandomGenerator random;
+
+    public MaximumLikelihood(final TransformedFunction likelihood, final Parameter variables) {
         this.likelihood = likelihood;
         this.variables = variables;
-        initial = new double[variables.getDimension()];
-        Arrays.fill(initial, 1);
-        optimizer = new CMAESOptimizer(Integer.MAX_VALUE, 0.0, true, 0, 8096, new RandomGenerator() {
+        initial = likelihood.toArguments(variables.getParameterValues());
+    }
 
-            @Override
-            public void setSeed(int i) {
-                throw new UnsupportedOperationException();
-            }
+    public TransformedFunction getFunction() {
+        return likelihood;
+    }
 
-            @Override
-            public void setSeed(int[] ints) {
-                throw new UnsupportedOperationException();
-            }
+    private double toArgument(final int dimension, final double value) {
+        return likelihood.getTransform(dimension).toArgument(value);
+    }
 
-            @Override
-            public void setSeed(long l) {
-                throw new UnsupportedOperationException();
-            }
+    private double toValue(final int dimension, final double argument) {
+        return likelihood.getTransform(dimension).toValue(argument);
+    }
 
-            @Override
-            public void nextBytes(byte[] bytes) {
-                MathUtils.nextBytes(bytes);
-            }
+    private double[] toArguments(final double[] values) {
+        return likelihood.toArguments(values);
+    }
 
-            @Override
-            public int nextInt() {
-                return MathUtils.nextInt();
+    public Parameter getVariables() {
+        return variables;
+    }
+
+    public void setRandomGenerator(final RandomGenerator random) {
+        this.random = random;
+    }
+
+    public void setBackend(final OptimizerBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * With more than one thread, starts are run concurrently, and a single start with a backend that
+     * evaluates batches of points (i.e. CMA-ES in batch mode) evaluates them concurrently on replicas of the likelihood.
+     * The thread count never changes the algorithm, only how its evaluations are scheduled.
+     */
+    public void setThreadCount(final int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Starts whose best log likelihood is still more than the margin below the best of all starts
+     * after the given number of evaluations are abandoned, unless that number is zero.
+     * With more than one thread the best of all starts is read while the others are still running,
+     * so which starts are abandoned, and hence the result, can differ between runs with the same seed.
+     */
+    public void setMultiStart(final int startCount, final int abandonAfter, final double abandonMargin) {
+        this.startCount = startCount;
+        this.abandonAfter = abandonAfter;
+        this.abandonMargin = abandonMargin;
+    }
+
+    public void setMaxEvaluations(final int maxEvaluations) {
+        this.maxEvaluations = maxEvaluations;
+    }
+
+    /**
+     * @param maxTime the wall time in seconds after which a run stops with its best point so far, or zero for no limit
+     */
+    public void setMaxTime(final double maxTime) {
+        this.maxTime = maxTime;
+    }
+
+    /**
+     * Stops a run once its best log likelihood has improved by no more than the larger of the tolerances
+     * (the relative one being relative to the best log likelihood) over the given number of evaluations.
+     * A window of zero disables this.
+     */
+    public void setWindow(final int window, final double relativeTolerance, final double absoluteTolerance) {
+        this.window = window;
+        windowRelativeTolerance = relativeTolerance;
+        windowAbsoluteTolerance = absoluteTolerance;
+    }
+
+    /**
+     * @param progressInterval the interval in seconds between progress reports, or zero for none
+     */
+    public void setProgressInterval(final double progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    public void setTolerance(final double relativeTolerance, final double absoluteTolerance) {
+        this.relativeTolerance = relativeTolerance;
+        this.absoluteTolerance = absoluteTolerance;
+    }
+
+    /**
+     * When enabled, runs after {@link #setWarmStart(double[])} start from the given point rather than from the initial values,
+     * with a step size of scale standard deviations of the curvature-based sampling spread at that point.
+     */
+    public void setWarmStart(final boolean warmStart, final double scale) {
+        this.warmStart = warmStart;
+        warmStartScale = scale;
+    }
+
+    public void setWarmStart(final double[] values) {
+
+        if (!warmStart)
+            return;
+
+        final int dimension = variables.getDimension();
+        final double[] lower = getLowerBounds();
+        final double[] upper = getUpperBounds();
+
+        warmStartPoint = toArguments(values);
+
+        // The diagonal curvature of the log likelihood gives the expected spread of the replicate estimates
+        warmStartSigma = new double[dimension];
+        final double f = likelihood.value(warmStartPoint);
+        final double[] x = warmStartPoint.clone();
+        for (int i = 0; i < dimension; ++i) {
+            final double h = 1e-3 * Math.max(Math.abs(x[i]), 1.0);
+            double sigma = DEFAULT_WARM_START_SIGMA;
+            if (x[i] - h >= lower[i] && x[i] + h <= upper[i]) {
+                x[i] = warmStartPoint[i] + h;
+                final double fPlus = likelihood.value(x);
+                x[i] = warmStartPoint[i] - h;
+                final double fMinus = likelihood.value(x);
+                x[i] = warmStartPoint[i];
+                final double curvature = (fPlus + fMinus - 2 * f) / (h * h);
+                if (curvature < 0)
+                    sigma = warmStartScale / Math.sqrt(-curvature);
             }
+            warmStartSigma[i] = Math.min(sigma, (upper[i] - lower[i]) / 2);
+        }
 
-            @Override
-            public int nextInt(int i) {
-                return MathUtils.nextInt(i);
+        likelihood.value(warmStartPoint);
+    }
+
+    @Override
+    public boolean getSpawnable() {
+        return true;
+    }
+
+    private double[] getLowerBounds() {
+        return likelihood.getLowerBounds();
+    }
+
+    private double[] getUpperBounds() {
+        return likelihood.getUpperBounds();
+    }
+
+    @Override
+    public void run() {
+
+        final double[] start;
+        final double[] sigma;
+        if (warmStartPoint != null) {
+            start = warmStartPoint;
+            sigma = warmStartSigma;
+        } else {
+            start = initial;
+            sigma = new double[variables.getDimension()];
+            Arrays.fill(sigma, 1.0);
+        }
+
+        final RandomGenerator random = this.random != null ? this.random : RandomStreams.global();
+
+        final long startTime = System.currentTimeMillis();
+        final Budget budget = new Budget();
+        final Start result;
+        if (startCount > 1) {
+            result = runMultiStart(start, sigma, random, budget);
+        } else {
+            final ConcurrentFunction concurrent = backend.evaluatesBatches() ? new ConcurrentFunction(likelihood, threadCount) : null;
+            try {
+                result = runStart(0, concurrent != null ? new BatchBestPoint(concurrent, budget) : new BestPoint(likelihood, budget),
+                        start, sigma, random);
+            } finally {
+                if (concurrent != null)
+                    concurrent.shutdown();
             }
+        }
+        final long time = System.currentTimeMillis() - startTime;
+
+        // Leave the variables at the optimum rather than at the last point evaluated
+        likelihood.value(result.best.getPoint());
+        try {
+            likelihood.close();
+        } catch (final IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        System.out.println(variables);
+        System.out.println(result.best.getValue());
+        System.out.println(backend.getName() + ": " + result.evaluationCount + " evaluations in " + time / 1000.0
+                + " seconds (" + result.status + ")");
+    }
+
+    /**
+     * Sets the variables to the given values.
+     *
+     * @return the log likelihood there
+     */
+    public double evaluate(final double[] values) {
+        return likelihood.value(toArguments(values));
+    }
 
+    /**
+     * Maximizes the likelihood with one dimension fixed at the given value, starting from the given values
+     * of the others with a small step size, and leaves the variables at the constrained optimum.
+     *
+     * @return the values at the constrained optimum and the log likelihood there
+     */
+    public PointValuePair maximizeFixed(final int dimension, final double value, final double[] startValues) {
+
+        final int n = variables.getDimension();
+
+        final double[] values = startValues.clone();
+        values[dimension] = value;
+        final double[] full = toArguments(values);
+        final double[] lower = getLowerBounds();
+        final double[] upper = getUpperBounds();
+
+        final double[] start = new double[n - 1];
+        final double[] reducedLower = new double[n - 1];
+        final double[] reducedUpper = new double[n - 1];
+        final double[] sigma = new double[n - 1];
+        for (int i = 0, j = 0; i < n; ++i) {
+            if (i == dimension)
+                continue;
+            start[j] = Math.min(Math.max(full[i], lower[i]), upper[i]);
+            reducedLower[j] = lower[i];
+            reducedUpper[j] = upper[i];
+            sigma[j] = Math.min(warmStartSigma != null ? warmStartSigma[i] : DEFAULT_WARM_START_SIGMA,
+                    (upper[i] - lower[i]) / 2);
+            ++j;
+        }
+
+        final PointValuePair best = maximizeReduced(new MultivariateFunction() {
             @Override
-            public long nextLong() {
-                return MathUtils.nextLong();
+            public double value(final double[] point) {
+                return likelihood.value(expand(point, dimension, full[dimension]));
             }
+        }, start, sigma, reducedLower, reducedUpper);
+        return new PointValuePair(variables.getParameterValues(), best.getValue());
+    }
 
-            @Override
-            public boolean nextBoolean() {
-                return MathUtils.nextBoolean();
+    /**
+     * Maximizes the likelihood with the values of the dimensions within each group tied together (each group being
+     * represented by the argument of its first dimension), starting from the given values, and leaves the variables
+     * at the optimum. Dimensions not in any group are free.
+     *
+     * @param stepSize the initial step size, or zero for the usual one
+     * @return the values at the optimum, with those within each group equal, and the log likelihood there
+     */
+    public PointValuePair maximizeTied(final int[][] groups, final double[] startValues, final double stepSize) {
+
+        final int n = variables.getDimension();
+        final Bounds<Double> bounds = variables.getBounds();
+        final double[] args = toArguments(startValues);
+        final double[] lower = getLowerBounds();
+        final double[] upper = getUpperBounds();
+
+        // Every dimension maps to a reduced dimension, through its group's representative if it has one
+        final int[] representative = new int[n];
+        for (int i = 0; i < n; ++i)
+            representative[i] = i;
+        for (final int[] group : groups) {
+            for (final int i : group)
+                representative[i] = group[0];
+        }
+        final int[] reduced = new int[n];
+        int m = 0;
+        for (int i = 0; i < n; ++i)
+            reduced[i] = representative[i] == i ? m++ : -1;
+
+        final double[] start = new double[m];
+        final double[] reducedLower = new double[m];
+        final double[] reducedUpper = new double[m];
+        final double[] sigma = new double[m];
+        for (int i = 0; i < n; ++i) {
+            if (reduced[i] < 0)
+                continue;
+            final int j = reduced[i];
+            reducedLower[j] = lower[i];
+            reducedUpper[j] = upper[i];
+            start[j] = Math.min(Math.max(args[i], lower[i]), upper[i]);
+        }
+        // A tied value must lie within the bounds of every dimension in its group
+        for (final int[] group : groups) {
+            final int j = reduced[group[0]];
+            for (final int i : group) {
+                reducedLower[j] = Math.max(reducedLower[j], toArgument(group[0], bounds.getLowerLimit(i)));
+                reducedUpper[j] = Math.min(reducedUpper[j], toArgument(group[0], bounds.getUpperLimit(i)));
             }
+            start[j] = Math.min(Math.max(start[j], reducedLower[j]), reducedUpper[j]);
+        }
+        for (int j = 0; j < m; ++j)
+            sigma[j] = Math.min(stepSize > 0 ? stepSize : 1.0, (reducedUpper[j] - reducedLower[j]) / 2);
 
+        final PointValuePair best = maximizeReduced(new MultivariateFunction() {
             @Override
-            public float nextFloat() {
-                return MathUtils.nextFloat();
+            public double value(final double[] point) {
+                final double[] full = new double[n];
+                for (int i = 0; i < n; ++i) {
+                    final int r = representative[i];
+                    full[i] = r == i ? point[reduced[i]] : toArgument(i, toValue(r, point[reduced[r]]));
+                }
+                return likelihood.value(full);
             }
+        }, start, sigma, reducedLower, reducedUpper);
+        return new PointValuePair(variables.getParameterValues(), best.getValue());
+    }
 
-            @Override
-            public double nextDouble() {
-                return MathUtils.nextDouble();
+    /**
+     * Runs the backend on a function of fewer arguments that sets all the variables, leaving them at the optimum.
+     * A function of no arguments (e.g. with the only dimension fixed) is just evaluated.
+     */
+    private PointValuePair maximizeReduced(final MultivariateFunction function, final double[] start, final double[] sigma,
+                                           final double[] lower, final double[] upper) {
+
+        if (start.length == 0)
+            return new PointValuePair(start, function.value(start));
+
+        final BestPoint objective = new BestPoint(function, new Budget());
+        try {
+            backend.maximize(objective, start, sigma, lower, upper, maxEvaluations,
+                    new SimplePointChecker<PointValuePair>(relativeTolerance, absoluteTolerance),
+                    random != null ? random : RandomStreams.global());
+        } catch (final TooManyEvaluationsException ex) {
+            // Use the best point so far
+        } catch (final TooManyIterationsException ex) {
+            // Use the best point so far
+        } catch (final StoppedException ex) {
+            // Use the best point so far
+        }
+        if (objective.getEvaluationCount() == 0)
+            objective.value(start);
+
+        final PointValuePair best = objective.getBest();
+        function.value(best.getPoint());
+        return best;
+    }
+
+    private static double[] expand(final double[] point, final int dimension, final double value) {
+        final double[] full = new double[point.length + 1];
+        System.arraycopy(point, 0, full, 0, dimension);
+        full[dimension] = value;
+        System.arraycopy(point, dimension, full, dimension + 1, point.length - dimension);
+        return full;
+    }
+
+    private Start runStart(final int index, final BestPoint objective, final double[] start, final double[] sigma,
+                           final RandomGenerator random) {
+        String status = "converged";
+        try {
+            backend.maximize(objective, start, sigma, getLowerBounds(), getUpperBounds(), maxEvaluations,
+                    new SimplePointChecker<PointValuePair>(relativeTolerance, absoluteTolerance), random);
+        } catch (final TooManyEvaluationsException ex) {
+            status = "out of evaluations";
+        } catch (final TooManyIterationsException ex) {
+            status = "out of iterations";
+        } catch (final StoppedException ex) {
+            status = ex.getMessage();
+        }
+        // The budget may run out before anything is evaluated
+        if (objective.getEvaluationCount() == 0)
+            objective.value(start);
+        return new Start(index, status, objective.getBest(), objective.getEvaluationCount());
+    }
+
+    /**
+     * The first start is the usual one and the others are a Latin hypercube design within the bounds.
+     * With more than one thread the starts run concurrently, each on a replica of the likelihood.
+     */
+    private Start runMultiStart(final double[] start, final double[] sigma, final RandomGenerator random, final Budget budget) {
+
+        final double[][] starts = LatinHypercube.sample(random, startCount, start, getLowerBounds(), getUpperBounds());
+        starts[0] = start;
+        final long seed = random.nextLong();
+        final Leader leader = new Leader();
+
+        final int workerCount = Math.min(threadCount, startCount);
+        final BlockingQueue<MultivariateFunction> functions = new ArrayBlockingQueue<MultivariateFunction>(workerCount);
+        if (workerCount > 1) {
+            for (int t = 0; t < workerCount; ++t)
+                functions.add(Replicas.copy(likelihood));
+        } else {
+            functions.add(likelihood);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        final List<Start> results = new ArrayList<Start>(startCount);
+
+        try {
+
+            final List<Future<Start>> futures = new ArrayList<Future<Start>>(startCount);
+            for (int k = 0; k < startCount; ++k) {
+                final int index = k;
+                futures.add(executor.submit(new Callable<Start>() {
+                    @Override
+                    public Start call() throws InterruptedException {
+                        final MultivariateFunction function = functions.take();
+                        try {
+                            return runStart(index, new AbandonableBestPoint(function, budget, leader), starts[index], sigma,
+                                    RandomStreams.create(seed, index));
+                        } finally {
+                            functions.put(function);
+                        }
+                    }
+                }));
             }
 
-            @Override
-            public double nextGaussian() {
-                return MathUtils.nextGaussian();
+            for (final Future<Start> future : futures)
+                results.add(future.get());
+
+        } catch (final InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (final ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Start best = results.get(0);
+        int evaluationCount = 0;
+        for (final Start result : results) {
+            System.out.println("Start " + (result.index + 1) + ": " + result.best.getValue() + " after "
+                    + result.evaluationCount + " evaluations (" + result.status + ")");
+            if (result.best.getValue() > best.best.getValue())
+                best = result;
+            evaluationCount += result.evaluationCount;
+        }
+        System.out.println("Best of " + startCount + " starts: " + (best.index + 1));
+
+        return new Start(best.index, best.status, best.best, evaluationCount);
+    }
+
+    private static final class Start {
+
+        private final int index;
+        private final String status;
+        private final PointValuePair best;
+        private final int evaluationCount;
+
+        private Start(final int index, final String status, final PointValuePair best, final int evaluationCount) {
+            this.index = index;
+            this.status = status;
+            this.best = best;
+            this.evaluationCount = evaluationCount;
+        }
+
+    }
+
+    /**
+     * The best value found by any of the starts so far.
+     */
+    private static final class Leader {
+
+        private double value = Double.NEGATIVE_INFINITY;
+
+        private synchronized void update(final double value) {
+            if (value > this.value)
+                this.value = value;
+        }
+
+        private synchronized double get() {
+            return value;
+        }
+
+    }
+
+    /**
+     * Stops a run early, for the given reason, leaving its best point so far as its result.
+     */
+    private static final class StoppedException extends RuntimeException {
+
+        private static final long serialVersionUID = 0L;
+
+        private StoppedException(final String reason) {
+            super(reason);
+        }
+
+    }
+
+    /**
+     * The limits and progress reports shared by all the starts of a run.
+     */
+    private final class Budget {
+
+        private final long startTime = System.currentTimeMillis();
+        private long lastReport = startTime;
+        private long evaluationCount = 0;
+        private double best = Double.NEGATIVE_INFINITY;
+
+        private int getWindow() {
+            return window;
+        }
+
+        private boolean isImproved(final double before, final double after) {
+            return after - before > Math.max(windowAbsoluteTolerance, windowRelativeTolerance * Math.abs(after));
+        }
+
+        private synchronized void record(final double value) {
+
+            ++evaluationCount;
+            if (value > best)
+                best = value;
+
+            final long now = System.currentTimeMillis();
+            if (progressInterval > 0 && now - lastReport >= progressInterval * 1000) {
+                lastReport = now;
+                System.out.println("Best " + best + " after " + evaluationCount + " evaluations ("
+                        + evaluationCount * 1000.0 / Math.max(now - startTime, 1) + " per second)");
             }
-        }, true, new SimplePointChecker<PointValuePair>(MachineAccuracy.SQRT_EPSILON, MachineAccuracy.EPSILON));
+            if (maxTime > 0 && now - startTime >= maxTime * 1000)
+                throw new StoppedException("out of time");
+        }
+
     }
 
-    @Override
-    public boolean getSpawnable() {
-        return true;
+    /**
+     * Gives up on a start once it has had its share of evaluations but is still clearly behind the leader.
+     */
+    private final class AbandonableBestPoint extends BestPoint {
+
+        private final Leader leader;
+
+        private AbandonableBestPoint(final MultivariateFunction function, final Budget budget, final Leader leader) {
+            super(function, budget);
+            this.leader = leader;
+        }
+
+        @Override
+        void record(final double[] point, final double value) {
+            super.record(point, value);
+            leader.update(value);
+            if (abandonAfter > 0 && getEvaluationCount() >= abandonAfter
+                    && getBest().getValue() < leader.get() - abandonMargin)
+                throw new StoppedException("abandoned");
+        }
+
     }
 
-    @Override
-    public void run() {
-        final Bounds<Double> bounds = variables.getBounds();
-        final double[] lower = new double[bounds.getBoundsDimension()];
-        final double[] upper = new double[bounds.getBoundsDimension()];
-        final double[] sigma = new double[variables.getDimension()];
-        Arrays.fill(sigma, 1.0);
-        for (int i = 0; i < variables.getDimension(); ++i) {
-            lower[i] = bounds.getLowerLimit(i) / variables.getParameterValue(i);
-            upper[i] = bounds.getUpperLimit(i) / variables.getParameterValue(i);
-        }
-        final PointValuePair result = optimizer.optimize(
-                new CMAESOptimizer.PopulationSize(4 + 3 * (int) Math.log(variables.getDimension())),
-                new CMAESOptimizer.Sigma(sigma),
-                GoalType.MAXIMIZE,
-                new ObjectiveFunction(likelihood),
-                new InitialGuess(initial),
-                new SimpleBounds(lower, upper),
-                new MaxEval(Integer.MAX_VALUE)
-        );
-        System.out.println(variables);
-        System.out.println(result.getValue());
+    /**
+     * Remembers the best point evaluated, so that a run stopped by its budget can still report it.
+     */
+    private static class BestPoint implements MultivariateFunction {
+
+        private final MultivariateFunction function;
+        private final Budget budget;
+        private final double[] history;
+        private double[] bestPoint = null;
+        private double bestValue = Double.NEGATIVE_INFINITY;
+        private int evaluationCount = 0;
+
+        private BestPoint(final MultivariateFunction function, final Budget budget) {
+            this.function = function;
+            this.budget = budget;
+            history = new double[budget.getWindow()];
+        }
+
+        @Override
+        public double value(final double[] point) {
+            final double value = function.value(point);
+            record(point, value);
+            return value;
+        }
+
+        void record(final double[] point, final double value) {
+            ++evaluationCount;
+            if (bestPoint == null || value > bestValue) {
+                bestPoint = point.clone();
+                bestValue = value;
+            }
+            budget.record(value);
+            // Compare with the best value a window of evaluations ago
+            if (history.length > 0) {
+                final int k = evaluationCount % history.length;
+                if (evaluationCount > history.length && !budget.isImproved(history[k], bestValue))
+                    throw new StoppedException("no improvement over " + history.length + " evaluations");
+                history[k] = bestValue;
+            }
+        }
+
+        PointValuePair getBest() {
+            return new PointValuePair(bestPoint, bestValue);
+        }
+
+        int getEvaluationCount() {
+            return evaluationCount;
+        }
+
+    }
+
+    private static final class BatchBestPoint extends BestPoint implements BatchFunction {
+
+        private final BatchFunction function;
+
+        private BatchBestPoint(final BatchFunction function, final Budget budget) {
+            super(function, budget);
+            this.function = function;
+        }
+
+        @Override
+        public double[] values(final double[][] points) {
+            final double[] values = function.values(points);
+            for (int k = 0; k < points.length; ++k)
+                record(points[k], values[k]);
+            return values;
+        }
+
     }
 
     public static final XMLObjectParser PARSER = new AbstractXMLObjectParser() {
 
+        private static final String OPTIMIZER = "optimizer";
+        private static final String THREADS = "threads";
+        private static final String STARTS = "starts";
+        private static final String ABANDON_AFTER = "abandonAfter";
+        private static final String ABANDON_MARGIN = "abandonMargin";
+        private static final String MAX_EVALUATIONS = "maxEvaluations";
+        private static final String MAX_TIME = "maxTime";
+        private static final String WINDOW = "window";
+        private static final String WINDOW_RELATIVE_TOLERANCE = "windowRelativeTolerance";
+        private static final String WINDOW_ABSOLUTE_TOLERANCE = "windowAbsoluteTolerance";
+        private static final String PROGRESS_INTERVAL = "progressInterval";
+        private static final String RELATIVE_TOLERANCE = "relativeTolerance";
+        private static final String ABSOLUTE_TOLERANCE = "absoluteTolerance";
+        private static final String WARM_START = "warmStart";
+        private static final String WARM_START_SCALE = "warmStartScale";
+
         @Override
         public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
 
-            final MultivariateFunction likelihood = (MultivariateFunction) xo.getChild(MultivariateFunction.class);
+            final TransformedFunction likelihood = (TransformedFunction) xo.getChild(TransformedFunction.class);
             final Parameter initial = (Parameter) xo.getChild(Parameter.class);
 
-            return new MaximumLikelihood(likelihood, initial);
+            final MaximumLikelihood maximumLikelihood = new MaximumLikelihood(likelihood, initial);
+
+            final String optimizer = xo.getAttribute(OPTIMIZER, CMAESBackend.NAME);
+            if (optimizer.equals(CMAESBackend.NAME))
+                maximumLikelihood.setBackend(CMAESBackend.parse(xo));
+            else if (optimizer.equals(BOBYQABackend.NAME))
+                maximumLikelihood.setBackend(BOBYQABackend.parse(xo, initial.getDimension()));
+            else if (optimizer.equals(NelderMeadBackend.NAME))
+                maximumLikelihood.setBackend(NelderMeadBackend.parse(xo));
+            else if (optimizer.equals(ConjugateGradientBackend.NAME))
+                maximumLikelihood.setBackend(ConjugateGradientBackend.parse(xo));
+            else
+                throw new XMLParseException("unrecognized option for attribute, '" + OPTIMIZER + "': " + optimizer);
+
+            final int threads = xo.getAttribute(THREADS, 1);
+            if (threads < 1)
+                throw new XMLParseException(THREADS + " must be positive");
+            maximumLikelihood.setThreadCount(threads);
+
+            final int starts = xo.getAttribute(STARTS, 1);
+            if (starts < 1)
+                throw new XMLParseException(STARTS + " must be positive");
+            final int abandonAfter = xo.getAttribute(ABANDON_AFTER, 0);
+            if (abandonAfter < 0)
+                throw new XMLParseException(ABANDON_AFTER + " must not be negative");
+            final double abandonMargin = xo.getAttribute(ABANDON_MARGIN, 10.0);
+            if (abandonMargin < 0)
+                throw new XMLParseException(ABANDON_MARGIN + " must not be negative");
+            maximumLikelihood.setMultiStart(starts, abandonAfter, abandonMargin);
+
+            final int maxEvaluations = xo.getAttribute(MAX_EVALUATIONS, Integer.MAX_VALUE);
+            if (maxEvaluations < 1)
+                throw new XMLParseException(MAX_EVALUATIONS + " must be positive");
+            maximumLikelihood.setMaxEvaluations(maxEvaluations);
+
+            final double maxTime = xo.getAttribute(MAX_TIME, 0.0);
+            if (maxTime < 0)
+                throw new XMLParseException(MAX_TIME + " must not be negative");
+            maximumLikelihood.setMaxTime(maxTime);
+
+            final int window = xo.getAttribute(WINDOW, 0);
+            final double windowRelativeTolerance = xo.getAttribute(WINDOW_RELATIVE_TOLERANCE, 0.0);
+            final double windowAbsoluteTolerance = xo.getAttribute(WINDOW_ABSOLUTE_TOLERANCE, 0.0);
+            if (window < 0 || windowRelativeTolerance < 0 || windowAbsoluteTolerance < 0)
+                throw new XMLParseException(WINDOW + " and its tolerances must not be negative");
+            maximumLikelihood.setWindow(window, windowRelativeTolerance, windowAbsoluteTolerance);
+
+            final double progressInterval = xo.getAttribute(PROGRESS_INTERVAL, 0.0);
+            if (progressInterval < 0)
+                throw new XMLParseException(PROGRESS_INTERVAL + " must not be negative");
+            maximumLikelihood.setProgressInterval(progressInterval);
+            maximumLikelihood.setTolerance(xo.getAttribute(RELATIVE_TOLERANCE, MachineAccuracy.SQRT_EPSILON),
+                    xo.getAttribute(ABSOLUTE_TOLERANCE, MachineAccuracy.EPSILON));
+            maximumLikelihood.setWarmStart(xo.getAttribute(WARM_START, false), xo.getAttribute(WARM_START_SCALE, 1.0));
+
+            return maximumLikelihood;
 
         }
 
@@ -170,7 +786,33 @@ public class MaximumLikelihood implements Spawnable {
         public XMLSyntaxRule[] getSyntaxRules() {
             return rules;
         }
-        final XMLSyntaxRule[] rules = {new ElementRule(MultivariateFunction.class), new ElementRule(Parameter.class)};
+        final XMLSyntaxRule[] rules = concatenate(new XMLSyntaxRule[]{
+                new ElementRule(TransformedFunction.class), new ElementRule(Parameter.class),
+                AttributeRule.newStringRule(OPTIMIZER, true),
+                AttributeRule.newIntegerRule(THREADS, true),
+                AttributeRule.newIntegerRule(STARTS, true),
+                AttributeRule.newIntegerRule(ABANDON_AFTER, true,
+                        "Abandons starts that are behind the best after this many evaluations. "
+                                + "With more than one thread this is not reproducible, as the starts run concurrently."),
+                AttributeRule.newDoubleRule(ABANDON_MARGIN, true),
+                AttributeRule.newIntegerRule(MAX_EVALUATIONS, true),
+                AttributeRule.newDoubleRule(MAX_TIME, true),
+                AttributeRule.newIntegerRule(WINDOW, true),
+                AttributeRule.newDoubleRule(WINDOW_RELATIVE_TOLERANCE, true),
+                AttributeRule.newDoubleRule(WINDOW_ABSOLUTE_TOLERANCE, true),
+                AttributeRule.newDoubleRule(PROGRESS_INTERVAL, true),
+                AttributeRule.newDoubleRule(RELATIVE_TOLERANCE, true),
+                AttributeRule.newDoubleRule(ABSOLUTE_TOLERANCE, true),
+                AttributeRule.newBooleanRule(WARM_START, true),
+                AttributeRule.newDoubleRule(WARM_START_SCALE, true)},
+                CMAESBackend.RULES, BOBYQABackend.RULES, NelderMeadBackend.RULES, ConjugateGradientBackend.RULES);
+
+        private XMLSyntaxRule[] concatenate(final XMLSyntaxRule[]... rules) {
+            final List<XMLSyntaxRule> all = new ArrayList<XMLSyntaxRule>();
+            for (final XMLSyntaxRule[] r : rules)
+                all.addAll(Arrays.asList(r));
+            return all.toArray(new XMLSyntaxRule[all.size()]);
+        }
 
         @Override
         public String getParserDescription() {
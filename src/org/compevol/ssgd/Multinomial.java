@@ -0,0 +1,204 @@
+/*
+ * Multinomial.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Samples multinomial counts as a sequence of conditional binomials,
+ * so the cost depends on the number of categories and not on the number of trials.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public final class Multinomial {
+
+    private static final double INVERSION_THRESHOLD = 30.0;
+
+    private Multinomial() {
+        // No instances
+    }
+
+    /**
+     * Distributes n trials over categories with probabilities proportional to weights, writing the counts into counts.
+     */
+    public static void sample(final RandomGenerator random, long n, final double[] weights, final double[] counts) {
+
+        double remaining = 0.0;
+        for (final double w : weights)
+            remaining += w;
+
+        for (int i = 0; i < weights.length; ++i) {
+            if (n == 0 || remaining <= 0.0) {
+                counts[i] = 0;
+            } else {
+                final long k = binomial(random, n, weights[i] / remaining);
+                counts[i] = k;
+                n -= k;
+            }
+            remaining -= weights[i];
+        }
+
+        // Any trials left over through rounding go to the last category with positive weight
+        if (n > 0) {
+            for (int i = weights.length - 1; i >= 0; --i) {
+                if (weights[i] > 0) {
+                    counts[i] += n;
+                    break;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Draws by inversion when n * p is small and otherwise by the BTPE rejection method of
+     * Kachitvichyanukul and Schmeiser (1988), so the expected cost does not grow with n.
+     */
+    public static long binomial(final RandomGenerator random, final long n, final double p) {
+
+        if (p <= 0.0 || n == 0)
+            return 0;
+        else if (p >= 1.0)
+            return n;
+        else if (p > 0.5)
+            return n - binomial(random, n, 1.0 - p);
+
+        if (n * p < INVERSION_THRESHOLD) {
+            final double q = p / (1 - p);
+            double r = Math.pow(1 - p, n);
+            double cdf = r;
+            final double u = random.nextDouble();
+            long k = 0;
+            while (u > cdf && k < n) {
+                r *= q * (n - k) / (k + 1);
+                cdf += r;
+                ++k;
+            }
+            return k;
+        }
+
+        return btpe(random, n, p);
+    }
+
+    /**
+     * Requires p <= 0.5 and n * p at least the inversion threshold.
+     */
+    private static long btpe(final RandomGenerator random, final long n, final double p) {
+
+        final double q = 1 - p;
+        final double npq = n * p * q;
+        final double fm = n * p + p;
+        final long m = (long) Math.floor(fm);
+
+        // The triangular centre, parallelogram and exponential tails of the majorizing function
+        final double p1 = Math.floor(2.195 * Math.sqrt(npq) - 4.6 * q) + 0.5;
+        final double xm = m + 0.5;
+        final double xl = xm - p1;
+        final double xr = xm + p1;
+        final double c = 0.134 + 20.5 / (15.3 + m);
+        double a = (fm - xl) / (fm - xl * p);
+        final double lambdaL = a * (1 + a / 2);
+        a = (xr - fm) / (xr * q);
+        final double lambdaR = a * (1 + a / 2);
+        final double p2 = p1 * (1 + 2 * c);
+        final double p3 = p2 + c / lambdaL;
+        final double p4 = p3 + c / lambdaR;
+
+        while (true) {
+
+            final double u = random.nextDouble() * p4;
+            double v = random.nextDouble();
+            final long y;
+
+            if (u <= p1) {
+                // Inside the triangle, so always accepted
+                return (long) Math.floor(xm - p1 * v + u);
+            } else if (u <= p2) {
+                final double x = xl + (u - p1) / c;
+                v = v * c + 1 - Math.abs(m - x + 0.5) / p1;
+                if (v > 1)
+                    continue;
+                y = (long) Math.floor(x);
+            } else if (u <= p3) {
+                final double x = Math.floor(xl + Math.log(v) / lambdaL);
+                if (x < 0)
+                    continue;
+                y = (long) x;
+                v *= (u - p2) * lambdaL;
+            } else {
+                final double x = Math.floor(xr - Math.log(v) / lambdaR);
+                if (x > n)
+                    continue;
+                y = (long) x;
+                v *= (u - p3) * lambdaR;
+            }
+
+            final long k = Math.abs(y - m);
+            if (k <= 20 || k >= npq / 2 - 1) {
+                // Evaluate the ratio of the probabilities of y and m recursively
+                final double s = p / q;
+                final double b = s * (n + 1);
+                double f = 1;
+                if (m < y) {
+                    for (long i = m + 1; i <= y; ++i)
+                        f *= b / i - s;
+                } else if (m > y) {
+                    for (long i = y + 1; i <= m; ++i)
+                        f /= b / i - s;
+                }
+                if (v <= f)
+                    return y;
+                continue;
+            }
+
+            // Squeeze with a normal approximation before bounding with Stirling's formula
+            final double rho = (k / npq) * ((k * (k / 3.0 + 0.625) + 1.0 / 6.0) / npq + 0.5);
+            final double t = -(double) k * k / (2 * npq);
+            final double logV = Math.log(v);
+            if (logV < t - rho)
+                return y;
+            if (logV > t + rho)
+                continue;
+
+            final double x1 = y + 1;
+            final double f1 = m + 1;
+            final double z = n + 1 - m;
+            final double w = n - y + 1;
+            if (logV <= xm * Math.log(f1 / x1) + (n - m + 0.5) * Math.log(z / w) + (y - m) * Math.log(w * p / (x1 * q))
+                    + stirlingCorrection(f1) + stirlingCorrection(z) + stirlingCorrection(x1) + stirlingCorrection(w))
+                return y;
+
+        }
+
+    }
+
+    private static double stirlingCorrection(final double x) {
+        final double x2 = x * x;
+        return (13860 - (462 - (132 - (99 - 140 / x2) / x2) / x2) / x2) / x / 166320;
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * NelderMeadBackend.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.xml.AttributeRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.NelderMeadSimplex;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.SimplexOptimizer;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * The Nelder-Mead downhill simplex, with the initial simplex spanned by the step sizes.
+ * Points outside of the bounds are rejected.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class NelderMeadBackend implements OptimizerBackend {
+
+    private static final long serialVersionUID = 0L;
+
+    public static final String NAME = "nelderMead";
+
+    private static final String REFLECTION = "reflection";
+    private static final String EXPANSION = "expansion";
+    private static final String CONTRACTION = "contraction";
+    private static final String SHRINKAGE = "shrinkage";
+
+    static final XMLSyntaxRule[] RULES = {
+            AttributeRule.newDoubleRule(REFLECTION, true),
+            AttributeRule.newDoubleRule(EXPANSION, true),
+            AttributeRule.newDoubleRule(CONTRACTION, true),
+            AttributeRule.newDoubleRule(SHRINKAGE, true)
+    };
+
+    private final double reflection;
+    private final double expansion;
+    private final double contraction;
+    private final double shrinkage;
+
+    public NelderMeadBackend(final double reflection, final double expansion, final double contraction, final double shrinkage) {
+        this.reflection = reflection;
+        this.expansion = expansion;
+        this.contraction = contraction;
+        this.shrinkage = shrinkage;
+    }
+
+    @Override
+    public PointValuePair maximize(final MultivariateFunction function, final double[] start, final double[] sigma,
+                                   final double[] lower, final double[] upper, final int maxEvaluations,
+                                   final ConvergenceChecker<PointValuePair> checker, final RandomGenerator random) {
+
+        final SimplexOptimizer optimizer = new SimplexOptimizer(checker);
+
+        return optimizer.optimize(
+                new NelderMeadSimplex(sigma, reflection, expansion, contraction, shrinkage),
+                GoalType.MAXIMIZE,
+                new ObjectiveFunction(new BoundedFunction(function, lower, upper)),
+                new InitialGuess(start),
+                new MaxEval(maxEvaluations)
+        );
+    }
+
+    @Override
+    public boolean evaluatesBatches() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    static NelderMeadBackend parse(final XMLObject xo) throws XMLParseException {
+        final double reflection = xo.getAttribute(REFLECTION, 1.0);
+        final double expansion = xo.getAttribute(EXPANSION, 2.0);
+        final double contraction = xo.getAttribute(CONTRACTION, 0.5);
+        final double shrinkage = xo.getAttribute(SHRINKAGE, 0.5);
+        if (reflection <= 0 || expansion <= reflection || contraction <= 0 || contraction >= 1 || shrinkage <= 0 || shrinkage >= 1)
+            throw new XMLParseException("Nelder-Mead requires 0 < " + REFLECTION + " < " + EXPANSION
+                    + " and " + CONTRACTION + " and " + SHRINKAGE + " between 0 and 1");
+        return new NelderMeadBackend(reflection, expansion, contraction, shrinkage);
+    }
+
+}
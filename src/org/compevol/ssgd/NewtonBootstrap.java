@@ -0,0 +1,298 @@
+/*
+ * NewtonBootstrap.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.datatype.DataType;
+import dr.inference.model.Bounds;
+import dr.inference.model.Parameter;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Approximates the estimate for a reweighting of the units (site patterns or blocks) of an analysis by a single Newton step
+ * from the estimate for the original weights. The log likelihood is linear in the weights, so the score of a replicate
+ * is the weighted sum of the per-unit scores, which are found once at the original estimate along with the Hessian.
+ * The step is taken in the space of the transformed arguments the analysis optimizes (e.g. on a log scale),
+ * with the scores and the Hessian carried over by the chain rule.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class NewtonBootstrap {
+
+    private static final double RELATIVE_STEP = 1e-4;
+
+    private final Parameter variables;
+    private final TransformedFunction transformed;
+    private final double[] estimate;
+    private final double[] arguments;
+    private final double[][][] unitScores;
+    private final DecompositionSolver hessian;
+
+    /**
+     * The analysis must hold the original patterns and be at its estimate for them.
+     */
+    public NewtonBootstrap(final Bootstrappable analysis, final PatternList[] patterns, final BlockPairedPatterns[] blockPatterns) {
+
+        variables = analysis.getVariables();
+        estimate = variables.getParameterValues();
+        transformed = analysis.getFunction();
+        arguments = transformed.toArguments(estimate);
+
+        final PairedCompositeLikelihood[] likelihoods = analysis.getLikelihoods();
+        final int dimension = estimate.length;
+
+        final double[] steps = new double[dimension];
+        for (int d = 0; d < dimension; ++d)
+            steps[d] = RELATIVE_STEP * Math.max(Math.abs(estimate[d]), 1.0);
+
+        unitScores = new double[likelihoods.length][][];
+        for (int l = 0; l < likelihoods.length; ++l) {
+
+            final PairedPatterns pairedPatterns = likelihoods[l].getPatterns();
+            final int unitCount = blockPatterns.length > 0 ? blockPatterns[l].getBlockCount() : patterns[l].getPatternCount();
+            unitScores[l] = new double[unitCount][dimension];
+
+            final double[] forward = new double[pairedPatterns.getWeights().length];
+            final double[] backward = new double[forward.length];
+            final double[] scores = new double[forward.length];
+
+            for (int d = 0; d < dimension; ++d) {
+
+                final double width = evaluateAround(d, steps[d], likelihoods[l], forward, backward);
+                for (int k = 0; k < scores.length; ++k)
+                    scores[k] = (forward[k] - backward[k]) / width;
+
+                if (blockPatterns.length > 0) {
+                    for (int b = 0; b < unitCount; ++b)
+                        unitScores[l][b][d] = dot(blockPatterns[l].getBlock(b), scores);
+                } else {
+                    for (int u = 0; u < unitCount; ++u)
+                        unitScores[l][u][d] = patternScore(pairedPatterns, patterns[l].getPattern(u), scores);
+                }
+
+            }
+
+        }
+
+        // The score for the original weights is close to but not exactly zero
+        final double[][] originalWeights = new double[unitScores.length][];
+        for (int l = 0; l < unitScores.length; ++l) {
+            originalWeights[l] = new double[unitScores[l].length];
+            for (int u = 0; u < originalWeights[l].length; ++u)
+                originalWeights[l][u] = blockPatterns.length > 0 ? 1.0 : patterns[l].getPatternWeight(u);
+        }
+        hessian = factorize(getHessian(likelihoods, steps), originalWeights);
+
+        setVariables(estimate);
+    }
+
+    /**
+     * For a log likelihood with the given per-unit scores and Hessian, both with respect to the values,
+     * at the estimate held by the variables.
+     */
+    NewtonBootstrap(final Parameter variables, final TransformedFunction transformed, final double[][][] unitScores,
+                    final double[][] hessian, final double[][] originalWeights) {
+        this.variables = variables;
+        estimate = variables.getParameterValues();
+        this.transformed = transformed;
+        arguments = transformed.toArguments(estimate);
+        this.unitScores = unitScores;
+        this.hessian = factorize(hessian, originalWeights);
+    }
+
+    private DecompositionSolver factorize(final double[][] hessian, final double[][] originalWeights) {
+        final double[][] h = transformed.hessianToArguments(arguments, getScore(originalWeights), hessian);
+        final DecompositionSolver solver = new LUDecomposition(new Array2DRowRealMatrix(h)).getSolver();
+        if (!solver.isNonSingular())
+            throw new IllegalStateException("The Hessian at the estimate is singular.");
+        return solver;
+    }
+
+    /**
+     * One Newton step from the original estimate, kept within the bounds of the variables.
+     *
+     * @param unitWeights the replicate weights of the units of each likelihood
+     */
+    public double[] estimate(final double[][] unitWeights) {
+
+        final int dimension = estimate.length;
+
+        final double[] score = transformed.gradientToArguments(arguments, getScore(unitWeights));
+
+        final RealVector step = hessian.solve(new ArrayRealVector(score, false));
+
+        final double[] args = new double[dimension];
+        for (int d = 0; d < dimension; ++d)
+            args[d] = arguments[d] - step.getEntry(d);
+        final double[] result = transformed.toValues(args);
+
+        final Bounds<Double> bounds = variables.getBounds();
+        for (int d = 0; d < dimension; ++d)
+            result[d] = Math.min(Math.max(result[d], bounds.getLowerLimit(d)), bounds.getUpperLimit(d));
+        return result;
+    }
+
+    private double[] getScore(final double[][] unitWeights) {
+        final int dimension = estimate.length;
+        final double[] score = new double[dimension];
+        for (int l = 0; l < unitScores.length; ++l) {
+            for (int u = 0; u < unitScores[l].length; ++u) {
+                final double w = unitWeights[l][u];
+                if (w == 0)
+                    continue;
+                for (int d = 0; d < dimension; ++d)
+                    score[d] += w * unitScores[l][u][d];
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Evaluates the pattern log likelihoods either side of the estimate, falling back to a one-sided difference at a bound.
+     *
+     * @return the distance between the two points
+     */
+    private double evaluateAround(final int d, final double h, final PairedCompositeLikelihood likelihood,
+                                  final double[] forward, final double[] backward) {
+
+        final Bounds<Double> bounds = variables.getBounds();
+        final double upper = Math.min(estimate[d] + h, bounds.getUpperLimit(d));
+        final double lower = Math.max(estimate[d] - h, bounds.getLowerLimit(d));
+
+        variables.setParameterValue(d, upper);
+        likelihood.getPatternLogLikelihoods(forward);
+        variables.setParameterValue(d, lower);
+        likelihood.getPatternLogLikelihoods(backward);
+        variables.setParameterValue(d, estimate[d]);
+
+        return upper - lower;
+    }
+
+    /**
+     * Central differences, except that a dimension too close to a bound is differenced on its other side,
+     * about a point shifted away from the bound, so that the likelihood is never evaluated out of range.
+     */
+    private double[][] getHessian(final PairedCompositeLikelihood[] likelihoods, final double[] steps) {
+
+        final int dimension = estimate.length;
+        final Bounds<Double> bounds = variables.getBounds();
+
+        // The differences in each dimension are taken at center +/- spacing
+        final double[] center = new double[dimension];
+        final double[] spacing = new double[dimension];
+        for (int i = 0; i < dimension; ++i) {
+            final double above = bounds.getUpperLimit(i) - estimate[i];
+            final double below = estimate[i] - bounds.getLowerLimit(i);
+            if (above >= steps[i] && below >= steps[i]) {
+                center[i] = estimate[i];
+                spacing[i] = steps[i];
+            } else if (above >= below) {
+                spacing[i] = Math.min(steps[i], above / 2);
+                center[i] = estimate[i] + spacing[i];
+            } else {
+                spacing[i] = Math.min(steps[i], below / 2);
+                center[i] = estimate[i] - spacing[i];
+            }
+            if (!(spacing[i] > 0))
+                throw new IllegalStateException("The bounds of dimension " + (i + 1) + " leave no room for differencing.");
+        }
+
+        final double[][] hessian = new double[dimension][dimension];
+        final double[] x = estimate.clone();
+
+        for (int i = 0; i < dimension; ++i) {
+
+            x[i] = center[i];
+            final double f = getLogLikelihood(likelihoods, x);
+            x[i] = center[i] + spacing[i];
+            final double fPlus = getLogLikelihood(likelihoods, x);
+            x[i] = center[i] - spacing[i];
+            final double fMinus = getLogLikelihood(likelihoods, x);
+            x[i] = estimate[i];
+            hessian[i][i] = (fPlus + fMinus - 2 * f) / (spacing[i] * spacing[i]);
+
+            for (int j = 0; j < i; ++j) {
+                double sum = 0;
+                for (int s = 0; s < 4; ++s) {
+                    x[i] = center[i] + ((s & 1) == 0 ? spacing[i] : -spacing[i]);
+                    x[j] = center[j] + ((s & 2) == 0 ? spacing[j] : -spacing[j]);
+                    final double sign = (s == 0 || s == 3) ? 1 : -1;
+                    sum += sign * getLogLikelihood(likelihoods, x);
+                }
+                x[i] = estimate[i];
+                x[j] = estimate[j];
+                hessian[i][j] = hessian[j][i] = sum / (4 * spacing[i] * spacing[j]);
+            }
+
+        }
+
+        return hessian;
+    }
+
+    private double getLogLikelihood(final PairedCompositeLikelihood[] likelihoods, final double[] x) {
+        setVariables(x);
+        double logL = 0;
+        for (final PairedCompositeLikelihood likelihood : likelihoods)
+            logL += likelihood.getLogLikelihood();
+        return logL;
+    }
+
+    private void setVariables(final double[] x) {
+        ParameterUpdates.setParameterValues(variables, x);
+    }
+
+    private static double dot(final double[] a, final double[] b) {
+        double sum = 0;
+        for (int k = 0; k < a.length; ++k) {
+            if (a[k] != 0)
+                sum += a[k] * b[k];
+        }
+        return sum;
+    }
+
+    /**
+     * The score of a site pattern is the sum of the scores of the paired patterns it contributes to.
+     */
+    private static double patternScore(final PairedPatterns pairedPatterns, final int[] pattern, final double[] scores) {
+        final DataType dataType = pairedPatterns.getDataType();
+        double score = 0;
+        for (int m = 0; m < pattern.length; ++m) {
+            final int[] aStates = dataType.getStates(pattern[m]);
+            for (int n = m + 1; n < pattern.length; ++n) {
+                for (final int x : aStates)
+                    for (final int y : dataType.getStates(pattern[n]))
+                        score += scores[pairedPatterns.getIndex(m, n, x, y)];
+            }
+        }
+        return score;
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * OptimizerBackend.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.io.Serializable;
+
+/**
+ * A strategy for maximizing a likelihood function within bounds.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public interface OptimizerBackend extends Serializable {
+
+    /**
+     * @param start the initial guess
+     * @param sigma the initial step size in each dimension
+     * @param checker the convergence criterion, for the backends that use one
+     * @param random the source of randomness, for the backends that use one
+     * @throws org.apache.commons.math3.exception.TooManyEvaluationsException if maxEvaluations is reached first
+     * @throws org.apache.commons.math3.exception.TooManyIterationsException if a backend's own limit on iterations
+     * is reached first
+     */
+    PointValuePair maximize(MultivariateFunction function, double[] start, double[] sigma, double[] lower, double[] upper,
+                            int maxEvaluations, ConvergenceChecker<PointValuePair> checker, RandomGenerator random);
+
+    /**
+     * Whether the points of a {@link BatchFunction} are evaluated a batch at a time, so that they can be evaluated concurrently.
+     */
+    boolean evaluatesBatches();
+
+    String getName();
+
+}
@@ -26,10 +26,6 @@
 
 package org.compevol.ssgd;
 
-import dr.evolution.alignment.Patterns;
-import dr.evolution.tree.SimpleNode;
-import dr.evolution.tree.SimpleTree;
-import dr.evolution.tree.Tree;
 import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
 import dr.evomodel.sitemodel.SiteModel;
@@ -55,12 +51,17 @@ public class PairedCompositeLikelihood extends Likelihood.Abstract {
     private PairedPatterns patterns;
     private final SiteModel siteModel;
     private final Integrator integrator;
-    private final TipStatesModel tipStatesModel;
+    private final PairwiseTipErrorModel tipErrorModel;
     private final TaxonList taxa;
 
     private double scale = 0;
 
-    public PairedCompositeLikelihood(final PairedPatterns patterns, final SiteModel siteModel, final Integrator integrator, final TipStatesModel tipStatesModel) {
+    private double[][][] tipPartials = null;
+    private long[] tipVersions = null;
+
+    private volatile boolean dirty = true;
+
+    public PairedCompositeLikelihood(final PairedPatterns patterns, final SiteModel siteModel, final Integrator integrator, final PairwiseTipErrorModel tipErrorModel) {
         super(new CompoundModel("PairedCompositeLikelihoodModel"));
         final CompoundModel model = (CompoundModel) getModel();
         this.patterns = patterns;
@@ -68,45 +69,37 @@ public class PairedCompositeLikelihood extends Likelihood.Abstract {
         model.addModel(siteModel);
         this.integrator = integrator;
         model.addModel(integrator);
-        this.tipStatesModel = tipStatesModel;
-        model.addModel(tipStatesModel);
+        this.tipErrorModel = tipErrorModel;
+        model.addModel(tipErrorModel.getModel());
         taxa = patterns.getTaxa();
+        tipErrorModel.setTaxa(taxa);
+    }
 
-        // Hack involving fake patterns and a fake tree to set up the tip states model
-        final Patterns fakePatterns = new Patterns(patterns.getDataType(), taxa);
-        for (int i = 0; i < patterns.getDataType().getStateCount(); ++i) {
-            final int[] pattern = new int[taxa.getTaxonCount()];
-            Arrays.fill(pattern, i);
-            fakePatterns.addPattern(pattern);
-        }
-        SimpleNode root = new SimpleNode();
-        root.setTaxon(taxa.getTaxon(0));
-        root.setHeight(root.getTaxon().getHeight());
-        for (int i = 1; i < taxa.getTaxonCount(); ++i) {
-            final SimpleNode child = new SimpleNode();
-            child.setTaxon(taxa.getTaxon(i));
-            child.setHeight(child.getTaxon().getHeight());
-            final SimpleNode newRoot = new SimpleNode();
-            newRoot.addChild(root);
-            newRoot.addChild(child);
-            root = newRoot;
+    /**
+     * The tip partials of every taxon indexed by observed state, refreshing only those reported as changed.
+     */
+    private double[][][] getTipPartials() {
+        final int taxonCount = taxa.getTaxonCount();
+        final int stateCount = patterns.getDataType().getStateCount();
+        if (tipPartials == null) {
+            tipPartials = new double[taxonCount][stateCount][stateCount];
+            tipVersions = new long[taxonCount];
+            Arrays.fill(tipVersions, -1);
         }
-        final Tree fakeTree = new SimpleTree(root);
-        tipStatesModel.setTree(fakeTree);
-        for (int i = 0; i < taxa.getTaxonCount(); ++i)
-            tipStatesModel.setStates(fakePatterns, i, i, taxa.getTaxon(i).getId());
+        for (final int x : tipErrorModel.getChangedTaxa(tipVersions))
+            tipErrorModel.getStatePartials(x, tipPartials[x]);
+        return tipPartials;
     }
 
     @Override
     protected double calculateLogLikelihood() {
 
+        dirty = false;
+
         final int taxonCount = taxa.getTaxonCount();
         final int stateCount = patterns.getDataType().getStateCount();
 
-        final double[][] partials = new double[taxonCount][stateCount * stateCount];
-        for (int i = 0; i < taxonCount; ++i) {
-            tipStatesModel.getTipPartials(i, partials[i]);
-        }
+        final double[][][] partials = getTipPartials();
 
         double logL = 0.0;
 
@@ -123,14 +116,8 @@ public class PairedCompositeLikelihood extends Likelihood.Abstract {
                         final double w = patterns.getPatternWeight(a, i, b, j);
 
                         if (w > 0) {
-                            
-                            final double[] aPartial = new double[stateCount];
-                            System.arraycopy(partials[x], stateCount * i, aPartial, 0, stateCount);
-
-                            final double[] bPartial = new double[stateCount];
-                            System.arraycopy(partials[y], stateCount * j, bPartial, 0, stateCount);
 
-                            logL += w * pairLogLikelihood(a, aPartial, b, bPartial);
+                            logL += w * pairLogLikelihood(a, partials[x][i], b, partials[y][j]);
 
                             if (logL == Double.NEGATIVE_INFINITY)
                                 return Double.NEGATIVE_INFINITY;
@@ -148,6 +135,35 @@ public class PairedCompositeLikelihood extends Likelihood.Abstract {
         return logL;
     }
 
+    /**
+     * The log likelihood of every pattern with a positive weight, indexed as the weights of the patterns.
+     * The others are left untouched.
+     */
+    public void getPatternLogLikelihoods(final double[] logLikelihoods) {
+
+        final int taxonCount = taxa.getTaxonCount();
+        final int stateCount = patterns.getDataType().getStateCount();
+
+        final double[][][] partials = getTipPartials();
+
+        final double[] weights = patterns.getWeights();
+
+        for (int x = 0; x < taxonCount; ++x) {
+            final Taxon a = taxa.getTaxon(x);
+            for (int y = x+1; y < taxonCount; ++y) {
+                final Taxon b = taxa.getTaxon(y);
+                for (int i = 0; i < stateCount; ++i) {
+                    for (int j = 0; j < stateCount; ++j) {
+                        final int k = patterns.getIndex(x, y, i, j);
+                        if (weights[k] > 0)
+                            logLikelihoods[k] = pairLogLikelihood(a, partials[x][i], b, partials[y][j]);
+                    }
+                }
+            }
+        }
+
+    }
+
     private double pairLogLikelihood(final Taxon a, final double[] aPartial, final Taxon b, final double[] bPartial) {
 
         double L = 0.0;
@@ -174,6 +190,52 @@ public class PairedCompositeLikelihood extends Likelihood.Abstract {
 
     }
 
+    public PairedPatterns getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * Also to be called when the weights of the current patterns have been changed in place.
+     */
+    public void setPatterns(final PairedPatterns patterns) {
+        if (!this.patterns.isCompatible(patterns))
+            throw new IllegalArgumentException("The patterns must have the same taxa and data type.");
+        this.patterns = patterns;
+        makeDirty();
+    }
+
+    @Override
+    public void makeDirty() {
+        super.makeDirty();
+        dirty = true;
+    }
+
+    /**
+     * Whether the likelihood must be recalculated, because one of its models or its patterns changed.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Brings any state of the site, substitution and population models that is updated lazily when read up to date,
+     * so that likelihoods sharing these models can then be evaluated concurrently.
+     */
+    public void prepare() {
+        for (int c = 0; c < siteModel.getCategoryCount(); ++c) {
+            siteModel.getRateForCategory(c);
+            siteModel.getProportionForCategory(c);
+        }
+        final FrequencyModel frequencies = siteModel.getFrequencyModel();
+        for (int i = 0; i < frequencies.getFrequencyCount(); ++i)
+            frequencies.getFrequency(i);
+        integrator.prepare();
+    }
+
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
     public void setScale(double scale) {
         this.scale = scale;
     }
@@ -188,7 +250,8 @@ public class PairedCompositeLikelihood extends Likelihood.Abstract {
                     (PairedPatterns) xo.getChild(PairedPatterns.class),
                     (SiteModel) xo.getChild(SiteModel.class),
                     (Integrator) xo.getChild(Integrator.class),
-                    (TipStatesModel) xo.getChild(TipStatesModel.class));
+                    TipStatesModelAdapter.adapt((TipStatesModel) xo.getChild(TipStatesModel.class),
+                            ((PairedPatterns) xo.getChild(PairedPatterns.class)).getDataType()));
             likelihood.setScale(xo.getAttribute(SCALE, 0.0));
             return likelihood;
         }
@@ -32,10 +32,12 @@ import dr.evolution.util.TaxonList;
 import dr.math.MathUtils;
 import dr.util.Identifiable;
 
+import java.io.Serializable;
+
 /**
  * @author Arman Bilge <armanbilge@gmail.com>
  */
-public class PairedPatterns implements Identifiable {
+public class PairedPatterns implements Identifiable, Serializable {
 
     private static final long serialVersionUID = 0L;
 
@@ -74,14 +76,15 @@ public class PairedPatterns implements Identifiable {
     }
 
     public void addPattern(final Taxon a, final int i, final Taxon b, final int j, final double w) {
+        addPattern(taxa.getTaxonIndex(a), i, taxa.getTaxonIndex(b), j, w);
+    }
 
-        final int m = taxa.getTaxonIndex(a);
-        final int n = taxa.getTaxonIndex(b);
+    public void addPattern(final int m, final int i, final int n, final int j, final double w) {
 
         if (m == n) {
             throw new IllegalArgumentException("The two taxa must be different.");
         } else if (m > n) {
-            addPattern(b, j, a, i, w);
+            addPattern(n, j, m, i, w);
             return;
         }
 
@@ -91,7 +94,76 @@ public class PairedPatterns implements Identifiable {
 
     }
 
-    private int getIndex(final int m, final int n, final int i, final int j) {
+    /**
+     * Adds a block of counts for a pair of taxa, where counts[stateCount * i + j] is the weight
+     * of state i in the m-th taxon and state j in the n-th taxon.
+     */
+    public void addPairCounts(final int m, final int n, final double[] counts) {
+
+        if (m == n)
+            throw new IllegalArgumentException("The two taxa must be different.");
+
+        final int offset = getIndex(Math.min(m, n), Math.max(m, n), 0, 0);
+        if (m < n) {
+            for (int k = 0; k < transitionCount; ++k)
+                weights[offset + k] += counts[k];
+        } else {
+            for (int i = 0; i < stateCount; ++i)
+                for (int j = 0; j < stateCount; ++j)
+                    weights[offset + stateCount * j + i] += counts[stateCount * i + j];
+        }
+
+    }
+
+    public void addPatterns(final PairedPatterns patterns) {
+
+        if (!isCompatible(patterns))
+            throw new IllegalArgumentException("The patterns must have the same taxa and data type.");
+
+        for (int i = 0; i < weights.length; ++i)
+            weights[i] += patterns.weights[i];
+
+    }
+
+    /**
+     * Pairs are indexed so that those among the first n taxa always precede any pair involving a later taxon.
+     * Extending the taxon list therefore only appends to the weights and the existing counts can be copied as-is.
+     */
+    public PairedPatterns extend(final TaxonList extendedTaxa) {
+
+        final int taxonCount = taxa.getTaxonCount();
+
+        if (extendedTaxa.getTaxonCount() < taxonCount)
+            throw new IllegalArgumentException("The extended taxon list must not be smaller than the existing one.");
+
+        for (int i = 0; i < taxonCount; ++i) {
+            if (!taxa.getTaxonId(i).equals(extendedTaxa.getTaxonId(i)))
+                throw new IllegalArgumentException("The extended taxon list must begin with the existing taxa.");
+        }
+
+        final PairedPatterns extended = new PairedPatterns(dataType, extendedTaxa);
+        System.arraycopy(weights, 0, extended.weights, 0, weights.length);
+        return extended;
+    }
+
+    public boolean isCompatible(final PairedPatterns patterns) {
+
+        if (patterns.dataType != dataType || patterns.taxa.getTaxonCount() != taxa.getTaxonCount())
+            return false;
+
+        for (int i = 0; i < taxa.getTaxonCount(); ++i) {
+            if (!taxa.getTaxonId(i).equals(patterns.taxa.getTaxonId(i)))
+                return false;
+        }
+
+        return true;
+    }
+
+    protected final double[] getWeights() {
+        return weights;
+    }
+
+    final int getIndex(final int m, final int n, final int i, final int j) {
         return (m + n * (n - 1) / 2) * transitionCount + stateCount * i + j;
     }
 
@@ -0,0 +1,180 @@
+/*
+ * PairedPatternsConverter.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.util.Taxa;
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.XMLObject;
+import dr.xml.XMLObjectParser;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a PairedPatterns summary from the unique site patterns of a PatternList,
+ * so the cost scales with the number of distinct columns and not with the alignment length.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class PairedPatternsConverter {
+
+    private final PatternList patterns;
+
+    public PairedPatternsConverter(final PatternList patterns) {
+        this.patterns = patterns;
+    }
+
+    public PairedPatterns convert() {
+        return convert(1);
+    }
+
+    /**
+     * The work is split by the first taxon of each pair, so every thread writes to its own part of the weights
+     * and no per-thread copies of the weights need to be merged.
+     */
+    public PairedPatterns convert(final int threadCount) {
+
+        final Taxa taxa = new Taxa();
+        for (int i = 0; i < patterns.getTaxonCount(); ++i)
+            taxa.addTaxon(patterns.getTaxon(i));
+
+        final PairedPatterns pairedPatterns = new PairedPatterns(patterns.getDataType(), taxa);
+        convert(pairedPatterns, threadCount);
+        return pairedPatterns;
+    }
+
+    /**
+     * Refills paired patterns previously converted from patterns with the same taxa, e.g. a reweighting of them,
+     * so that converting many reweightings needs no more than one set of paired weights.
+     */
+    public void convert(final PairedPatterns pairedPatterns, final int threadCount) {
+
+        final int taxonCount = patterns.getTaxonCount();
+        if (pairedPatterns.getDataType() != patterns.getDataType() || pairedPatterns.getTaxa().getTaxonCount() != taxonCount)
+            throw new IllegalArgumentException("The paired patterns must have the same taxa and data type.");
+        for (int i = 0; i < taxonCount; ++i) {
+            if (!pairedPatterns.getTaxa().getTaxonId(i).equals(patterns.getTaxonId(i)))
+                throw new IllegalArgumentException("The paired patterns must have the same taxa and data type.");
+        }
+        Arrays.fill(pairedPatterns.getWeights(), 0.0);
+
+        final int patternCount = patterns.getPatternCount();
+        final int[][] states = new int[patternCount][];
+        final double[] weights = new double[patternCount];
+        for (int k = 0; k < patternCount; ++k) {
+            states[k] = patterns.getPattern(k);
+            weights[k] = patterns.getPatternWeight(k);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+
+            final List<Future<Object>> futures = new ArrayList<Future<Object>>(threadCount);
+            for (int t = 0; t < threadCount; ++t) {
+                final int first = t;
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        // Interleaving the rows balances the triangular amount of work per row
+                        for (int m = first; m < taxonCount; m += threadCount) {
+                            for (int k = 0; k < patternCount; ++k) {
+                                final int[] pattern = states[k];
+                                final double w = weights[k];
+                                if (w == 0)
+                                    continue;
+                                for (int n = m + 1; n < taxonCount; ++n)
+                                    pairedPatterns.addPattern(m, pattern[m], n, pattern[n], w);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (final Future<Object> future : futures)
+                future.get();
+
+        } catch (final InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (final ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static final XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        private static final String THREADS = "threads";
+
+        @Override
+        public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
+            final int threads = xo.getAttribute(THREADS, 1);
+            if (threads < 1)
+                throw new XMLParseException(THREADS + " must be positive");
+            return new PairedPatternsConverter((PatternList) xo.getChild(PatternList.class)).convert(threads);
+        }
+
+        @Override
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+        private final XMLSyntaxRule[] rules = {
+                new ElementRule(PatternList.class),
+                AttributeRule.newIntegerRule(THREADS, true)
+        };
+
+        @Override
+        public String getParserDescription() {
+            return "Converts the unique site patterns of a PatternList to a PairedPatterns summary.";
+        }
+
+        @Override
+        public Class getReturnType() {
+            return PairedPatterns.class;
+        }
+
+        @Override
+        public String getParserName() {
+            return "pairedPatterns";
+        }
+
+    };
+
+}
@@ -34,6 +34,7 @@ import dr.evolution.util.TaxonList;
 import dr.evomodel.coalescent.CoalescentSimulator;
 import dr.evomodel.coalescent.DemographicModel;
 import dr.evomodel.sitemodel.SiteModel;
+import dr.math.MathUtils;
 import dr.xml.AbstractXMLObjectParser;
 import dr.xml.AttributeRule;
 import dr.xml.ElementRule;
@@ -42,6 +43,16 @@ import dr.xml.XMLParseException;
 import dr.xml.XMLSyntaxRule;
 import jebl.evolution.alignments.Alignment;
 import jebl.evolution.sequences.Sequence;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
 
 /**
  * @author Arman Bilge <armanbilge@gmail.com>
@@ -53,12 +64,16 @@ public class PairedPatternsSimulator {
 
     private final TaxonList taxa;
     private final DemographicModel demographicModel;
+    private final SiteModel siteModel;
+    private final int locusLength;
     private final int locusCount;
 
     public PairedPatternsSimulator(final TaxonList taxa, final DemographicModel demographicModel, final SiteModel siteModel, final int locusLength, final int locusCount) {
         this.taxa = taxa;
         this.demographicModel = demographicModel;
+        this.siteModel = siteModel;
         sequenceSimulator = new SeqGen(locusLength, 1.0, siteModel.getFrequencyModel(), siteModel.getSubstitutionModel(), siteModel, 0.0);
+        this.locusLength = locusLength;
         this.locusCount = locusCount;
     }
 
@@ -101,19 +116,98 @@ public class PairedPatternsSimulator {
 
     }
 
+    public interface Locus {
+        void simulate(RandomGenerator random, PairedPatterns patterns);
+    }
+
+    public PairedPatterns simulatePatterns(final long seed, final int threadCount) {
+        return simulatePatterns(seed, threadCount, false);
+    }
+
+    public PairedPatterns simulatePairwisePatterns(final long seed, final int threadCount) {
+        return simulatePatterns(seed, threadCount, true);
+    }
+
+    /**
+     * Each locus draws from its own stream derived from the seed and the locus index,
+     * so the result does not depend on the number of threads.
+     */
+    private PairedPatterns simulatePatterns(final long seed, final int threadCount, final boolean pairwise) {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+
+            final List<Future<PairedPatterns>> futures = new ArrayList<Future<PairedPatterns>>(threadCount);
+            for (int t = 0; t < threadCount; ++t) {
+                final int first = t;
+                futures.add(executor.submit(new Callable<PairedPatterns>() {
+                    @Override
+                    public PairedPatterns call() {
+                        final Locus simulator = pairwise ?
+                                new PairwiseLocusSimulator(taxa, demographicModel.getDemographicFunction(), siteModel, locusLength) :
+                                new LocusSimulator(taxa, demographicModel.getDemographicFunction(), siteModel, locusLength);
+                        final PairedPatterns patterns = new PairedPatterns(Nucleotides.INSTANCE, taxa);
+                        for (int i = first; i < locusCount; i += threadCount)
+                            simulator.simulate(RandomStreams.create(seed, i), patterns);
+                        return patterns;
+                    }
+                }));
+            }
+
+            final PairedPatterns patterns = new PairedPatterns(Nucleotides.INSTANCE, taxa);
+            for (final Future<PairedPatterns> future : futures)
+                patterns.addPatterns(future.get());
+            return patterns;
+
+        } catch (final InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (final ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+    }
+
     public static final AbstractXMLObjectParser PARSER = new AbstractXMLObjectParser() {
 
         private static final String LENGTH = "length";
         private static final String LOCI = "loci";
+        private static final String THREADS = "threads";
+        private static final String SEED = "seed";
+        private static final String METHOD = "method";
+        private static final String SEQGEN = "seqGen";
+        private static final String STREAMING = "streaming";
+        private static final String PAIRWISE = "pairwise";
 
         @Override
         public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
-            return new PairedPatternsSimulator(
+            final PairedPatternsSimulator simulator = new PairedPatternsSimulator(
                     (TaxonList) xo.getChild(TaxonList.class),
                     (DemographicModel) xo.getChild(DemographicModel.class),
                     (SiteModel) xo.getChild(SiteModel.class),
                     xo.getIntegerAttribute(LENGTH),
-                    xo.getIntegerAttribute(LOCI)).simulatePatterns();
+                    xo.getIntegerAttribute(LOCI));
+            final String method = xo.getAttribute(METHOD, xo.hasAttribute(THREADS) || xo.hasAttribute(SEED) ? STREAMING : SEQGEN);
+            if (method.equals(STREAMING) || method.equals(PAIRWISE)) {
+                final int threads = xo.getAttribute(THREADS, 1);
+                if (threads < 1)
+                    throw new XMLParseException(THREADS + " must be positive");
+                final long seed = xo.hasAttribute(SEED) ? xo.getLongIntegerAttribute(SEED) : MathUtils.nextLong();
+                if (method.equals(PAIRWISE)) {
+                    Logger.getLogger("dr.evomodel").warning("Simulating each pair independently from its marginal coalescent; " +
+                            "correlations between pairs are not reproduced.");
+                    return simulator.simulatePairwisePatterns(seed, threads);
+                }
+                return simulator.simulatePatterns(seed, threads);
+            } else if (method.equals(SEQGEN)) {
+                if (xo.hasAttribute(THREADS) || xo.hasAttribute(SEED))
+                    throw new XMLParseException(THREADS + " and " + SEED + " are only supported by the " + STREAMING + " and " + PAIRWISE + " methods");
+                return simulator.simulatePatterns();
+            } else {
+                throw new XMLParseException("unrecognized option for attribute, '" + METHOD + "': " + method);
+            }
         }
 
         @Override
@@ -125,7 +219,10 @@ public class PairedPatternsSimulator {
                 new ElementRule(DemographicModel.class),
                 new ElementRule(SiteModel.class),
                 AttributeRule.newIntegerRule(LENGTH),
-                AttributeRule.newIntegerRule(LOCI)
+                AttributeRule.newIntegerRule(LOCI),
+                AttributeRule.newIntegerRule(THREADS, true),
+                AttributeRule.newLongIntegerRule(SEED, true),
+                AttributeRule.newStringRule(METHOD, true)
         };
 
         @Override
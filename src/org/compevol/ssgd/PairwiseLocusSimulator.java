@@ -0,0 +1,140 @@
+/*
+ * PairwiseLocusSimulator.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.evolution.coalescent.DemographicFunction;
+import dr.evolution.util.TaxonList;
+import dr.evomodel.sitemodel.SiteModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Simulates a locus pair by pair, drawing each pair's coalescence time from its two-lineage marginal
+ * and the pair's site patterns from the resulting two-sequence distribution.
+ * Every pair is simulated independently, so correlations between pairs sharing a genealogy are not reproduced.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class PairwiseLocusSimulator implements PairedPatternsSimulator.Locus {
+
+    private final DemographicFunction demographicFunction;
+    private final SiteModel siteModel;
+    private final SubstitutionModel substitutionModel;
+    private final int stateCount;
+    private final int locusLength;
+    private final int taxonCount;
+
+    private final double[] tipHeights;
+    private final double[] frequencies;
+    private final double[] proportions;
+
+    private final double[] categoryCounts;
+    private final double[] aProbabilities;
+    private final double[] bProbabilities;
+    private final double[] jointProbabilities;
+    private final double[] jointCounts;
+    private final double[] counts;
+
+    public PairwiseLocusSimulator(final TaxonList taxa, final DemographicFunction demographicFunction, final SiteModel siteModel, final int locusLength) {
+
+        this.demographicFunction = demographicFunction;
+        this.siteModel = siteModel;
+        substitutionModel = siteModel.getSubstitutionModel();
+        stateCount = substitutionModel.getDataType().getStateCount();
+        this.locusLength = locusLength;
+        taxonCount = taxa.getTaxonCount();
+
+        tipHeights = new double[taxonCount];
+        for (int i = 0; i < taxonCount; ++i)
+            tipHeights[i] = taxa.getTaxon(i).getHeight();
+
+        frequencies = siteModel.getFrequencyModel().getFrequencies();
+        proportions = new double[siteModel.getCategoryCount()];
+        for (int c = 0; c < proportions.length; ++c)
+            proportions[c] = siteModel.getProportionForCategory(c);
+
+        final int transitionCount = stateCount * stateCount;
+        categoryCounts = new double[proportions.length];
+        aProbabilities = new double[transitionCount];
+        bProbabilities = new double[transitionCount];
+        jointProbabilities = new double[transitionCount];
+        jointCounts = new double[transitionCount];
+        counts = new double[transitionCount];
+    }
+
+    @Override
+    public void simulate(final RandomGenerator random, final PairedPatterns patterns) {
+
+        // Rate categories are a property of the site and so shared by all pairs
+        Multinomial.sample(random, locusLength, proportions, categoryCounts);
+
+        for (int m = 0; m < taxonCount; ++m) {
+            for (int n = m + 1; n < taxonCount; ++n) {
+
+                final double start = Math.max(tipHeights[m], tipHeights[n]);
+                final double coalescence;
+                synchronized (demographicFunction) {
+                    coalescence = demographicFunction.getInverseIntensity(demographicFunction.getIntensity(start) - Math.log(random.nextDouble()));
+                }
+
+                for (int k = 0; k < counts.length; ++k)
+                    counts[k] = 0;
+
+                for (int c = 0; c < proportions.length; ++c) {
+
+                    if (categoryCounts[c] == 0)
+                        continue;
+
+                    final double rate = siteModel.getRateForCategory(c);
+                    synchronized (substitutionModel) {
+                        substitutionModel.getTransitionProbabilities((coalescence - tipHeights[m]) * rate, aProbabilities);
+                        substitutionModel.getTransitionProbabilities((coalescence - tipHeights[n]) * rate, bProbabilities);
+                    }
+
+                    for (int i = 0; i < stateCount; ++i) {
+                        for (int j = 0; j < stateCount; ++j) {
+                            double p = 0;
+                            for (int k = 0; k < stateCount; ++k)
+                                p += frequencies[k] * aProbabilities[k * stateCount + i] * bProbabilities[k * stateCount + j];
+                            jointProbabilities[i * stateCount + j] = p;
+                        }
+                    }
+
+                    Multinomial.sample(random, (long) categoryCounts[c], jointProbabilities, jointCounts);
+                    for (int k = 0; k < counts.length; ++k)
+                        counts[k] += jointCounts[k];
+
+                }
+
+                patterns.addPairCounts(m, n, counts);
+
+            }
+        }
+
+    }
+
+}
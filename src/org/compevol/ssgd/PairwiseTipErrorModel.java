@@ -0,0 +1,61 @@
+/*
+ * PairwiseTipErrorModel.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.evolution.util.TaxonList;
+import dr.inference.model.Model;
+
+/**
+ * Maps the observed state of a taxon directly to its partial vector, as needed by pairwise likelihoods.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public interface PairwiseTipErrorModel {
+
+    /**
+     * Taxa are subsequently identified by their index in this list.
+     */
+    void setTaxa(TaxonList taxa);
+
+    /**
+     * Fills in the partial vector of the taxon for every observed state, indexed by observed state then true state.
+     */
+    void getStatePartials(int taxon, double[][] partials);
+
+    /**
+     * The indices of the taxa whose partials may have changed since the caller last asked.
+     * The caller keeps one version per taxon, initially -1, which are updated to those now current.
+     * Models that are shared between likelihoods may be called concurrently.
+     */
+    int[] getChangedTaxa(long[] seenVersions);
+
+    /**
+     * The model whose changes invalidate the partials.
+     */
+    Model getModel();
+
+}
@@ -0,0 +1,204 @@
+/*
+ * ParameterTransform.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import java.io.Serializable;
+
+/**
+ * An increasing map from the unbounded (or less bounded) space an optimizer searches to the value of a parameter.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public abstract class ParameterTransform implements Serializable {
+
+    private static final long serialVersionUID = 0L;
+
+    public abstract double toValue(double argument);
+
+    public abstract double toArgument(double value);
+
+    /**
+     * The derivative of the value with respect to the argument.
+     */
+    public abstract double derivative(double argument);
+
+    public abstract double secondDerivative(double argument);
+
+    /**
+     * Multiplies the value by a constant, typically the magnitude of its initial value so that the arguments start
+     * at plus or minus one. The scale must be positive, so that the bounds of the arguments keep their order,
+     * except that a scale of zero (e.g. from an initial value of zero) is taken to be one.
+     */
+    public static final class Scale extends ParameterTransform {
+
+        private static final long serialVersionUID = 0L;
+
+        private final double scale;
+
+        public Scale(final double scale) {
+            if (scale < 0)
+                throw new IllegalArgumentException("The scale must be positive.");
+            this.scale = scale != 0 ? scale : 1;
+        }
+
+        @Override
+        public double toValue(final double argument) {
+            return argument * scale;
+        }
+
+        @Override
+        public double toArgument(final double value) {
+            return value / scale;
+        }
+
+        @Override
+        public double derivative(final double argument) {
+            return scale;
+        }
+
+        @Override
+        public double secondDerivative(final double argument) {
+            return 0;
+        }
+
+    }
+
+    /**
+     * For positive values (e.g. population sizes) that may span orders of magnitude.
+     */
+    public static final class Log extends ParameterTransform {
+
+        private static final long serialVersionUID = 0L;
+
+        @Override
+        public double toValue(final double argument) {
+            return Math.exp(argument);
+        }
+
+        @Override
+        public double toArgument(final double value) {
+            return value > 0 ? Math.log(value) : Double.NEGATIVE_INFINITY;
+        }
+
+        @Override
+        public double derivative(final double argument) {
+            return Math.exp(argument);
+        }
+
+        @Override
+        public double secondDerivative(final double argument) {
+            return Math.exp(argument);
+        }
+
+    }
+
+    /**
+     * For values within an interval (e.g. rates and proportions), which keeps the search clear of its edges.
+     */
+    public static final class Logit extends ParameterTransform {
+
+        private static final long serialVersionUID = 0L;
+
+        private final double lower;
+        private final double width;
+
+        public Logit(final double lower, final double upper) {
+            this.lower = lower;
+            width = upper - lower;
+        }
+
+        private static double logistic(final double argument) {
+            return 1 / (1 + Math.exp(-argument));
+        }
+
+        @Override
+        public double toValue(final double argument) {
+            return lower + width * logistic(argument);
+        }
+
+        @Override
+        public double toArgument(final double value) {
+            final double p = (value - lower) / width;
+            if (p <= 0)
+                return Double.NEGATIVE_INFINITY;
+            else if (p >= 1)
+                return Double.POSITIVE_INFINITY;
+            return Math.log(p / (1 - p));
+        }
+
+        @Override
+        public double derivative(final double argument) {
+            final double p = logistic(argument);
+            return width * p * (1 - p);
+        }
+
+        @Override
+        public double secondDerivative(final double argument) {
+            final double p = logistic(argument);
+            return width * p * (1 - p) * (1 - 2 * p);
+        }
+
+    }
+
+    public static final class Affine extends ParameterTransform {
+
+        private static final long serialVersionUID = 0L;
+
+        private final double offset;
+        private final double scale;
+
+        /**
+         * @param scale must be positive
+         */
+        public Affine(final double offset, final double scale) {
+            this.offset = offset;
+            this.scale = scale;
+        }
+
+        @Override
+        public double toValue(final double argument) {
+            return offset + scale * argument;
+        }
+
+        @Override
+        public double toArgument(final double value) {
+            return (value - offset) / scale;
+        }
+
+        @Override
+        public double derivative(final double argument) {
+            return scale;
+        }
+
+        @Override
+        public double secondDerivative(final double argument) {
+            return 0;
+        }
+
+    }
+
+}
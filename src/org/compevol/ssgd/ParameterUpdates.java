@@ -0,0 +1,110 @@
+/*
+ * ParameterUpdates.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.inference.model.CompoundParameter;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+/**
+ * Sets many dimensions of a parameter with one change event per underlying parameter instead of one per dimension.
+ * Listeners receiving such an event (with index -1) can ask which dimensions actually changed.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public final class ParameterUpdates {
+
+    private ParameterUpdates() {
+        // No instances
+    }
+
+    private static final class Update {
+        private final Parameter parameter;
+        private final int[] dimensions;
+
+        private Update(final Parameter parameter, final int[] dimensions) {
+            this.parameter = parameter;
+            this.dimensions = dimensions;
+        }
+    }
+
+    private static final ThreadLocal<Update> current = new ThreadLocal<Update>();
+
+    public static void setParameterValues(final Parameter parameter, final double[] values) {
+        if (values.length != parameter.getDimension())
+            throw new IllegalArgumentException("Expected " + parameter.getDimension() + " values but got " + values.length);
+        setParameterValues(parameter, values, 0);
+    }
+
+    private static void setParameterValues(final Parameter parameter, final double[] values, final int offset) {
+
+        if (parameter instanceof CompoundParameter) {
+            // Listeners are registered with the components, which must each be notified
+            final CompoundParameter compound = (CompoundParameter) parameter;
+            int k = offset;
+            for (int i = 0; i < compound.getParameterCount(); ++i) {
+                final Parameter component = compound.getParameter(i);
+                setParameterValues(component, values, k);
+                k += component.getDimension();
+            }
+            return;
+        }
+
+        final int dimension = parameter.getDimension();
+        int count = 0;
+        final int[] changed = new int[dimension];
+        for (int i = 0; i < dimension; ++i) {
+            if (parameter.getParameterValue(i) != values[offset + i])
+                changed[count++] = i;
+        }
+
+        if (count == 1) {
+            parameter.setParameterValue(changed[0], values[offset + changed[0]]);
+        } else if (count > 1) {
+            for (int k = 0; k < count; ++k)
+                parameter.setParameterValueQuietly(changed[k], values[offset + changed[k]]);
+            final int[] dimensions = new int[count];
+            System.arraycopy(changed, 0, dimensions, 0, count);
+            current.set(new Update(parameter, dimensions));
+            try {
+                parameter.fireParameterChangedEvent();
+            } finally {
+                current.remove();
+            }
+        }
+    }
+
+    /**
+     * The dimensions changed by the bulk update of this variable now being notified,
+     * or null if it is not being notified of one, in which case all dimensions must be assumed changed.
+     */
+    public static int[] getChangedDimensions(final Variable variable) {
+        final Update update = current.get();
+        return update != null && update.parameter == variable ? update.dimensions : null;
+    }
+
+}
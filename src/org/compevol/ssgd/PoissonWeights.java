@@ -0,0 +1,86 @@
+/*
+ * PoissonWeights.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Poisson bootstrap weights drawn from the counter-based {@link RandomStreams#uniform},
+ * so the weight of any unit in any replicate can be computed independently of all others.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public final class PoissonWeights {
+
+    private static final double INVERSION_THRESHOLD = 10.0;
+
+    private PoissonWeights() {
+        // No instances
+    }
+
+    public static double sample(final long seed, final long replicate, final long unit, final double mean) {
+
+        if (mean <= 0)
+            return 0;
+
+        if (mean < INVERSION_THRESHOLD) {
+            final double u = RandomStreams.uniform(seed, replicate, unit, 0);
+            double p = Math.exp(-mean);
+            double cdf = p;
+            int k = 0;
+            while (u > cdf && p > 0) {
+                ++k;
+                p *= mean / k;
+                cdf += p;
+            }
+            return k;
+        }
+
+        // Transformed rejection with squeeze (Hoermann 1993)
+        final double slam = Math.sqrt(mean);
+        final double loglam = Math.log(mean);
+        final double b = 0.931 + 2.53 * slam;
+        final double a = -0.059 + 0.02483 * b;
+        final double invalpha = 1.1239 + 1.1328 / (b - 3.4);
+        final double vr = 0.9277 - 3.6224 / (b - 2);
+
+        for (long draw = 0; ; draw += 2) {
+            final double U = RandomStreams.uniform(seed, replicate, unit, draw) - 0.5;
+            final double V = RandomStreams.uniform(seed, replicate, unit, draw + 1);
+            final double us = 0.5 - Math.abs(U);
+            final double k = Math.floor((2 * a / us + b) * U + mean + 0.43);
+            if (us >= 0.07 && V <= vr)
+                return k;
+            if (k < 0 || (us < 0.013 && V > us))
+                continue;
+            if (Math.log(V) + Math.log(invalpha) - Math.log(a / (us * us) + b) <= -mean + k * loglam - Gamma.logGamma(k + 1))
+                return k;
+        }
+
+    }
+
+}
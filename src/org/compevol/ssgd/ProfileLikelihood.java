@@ -0,0 +1,392 @@
+/*
+ * ProfileLikelihood.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
+import dr.xml.ElementRule;
+import dr.xml.Spawnable;
+import dr.xml.XMLObject;
+import dr.xml.XMLObjectParser;
+import dr.xml.XMLParseException;
+import dr.xml.XMLSyntaxRule;
+import org.apache.commons.math3.distribution.ChiSquaredDistribution;
+import org.apache.commons.math3.optim.PointValuePair;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Profiles the likelihood over grids of values for individual dimensions of the variables and finds likelihood-ratio
+ * intervals from the profiles. Each grid is split at the estimate into two chains running outwards from it, in which every
+ * constrained optimization starts from the optimum of its neighbour. Chains run concurrently on replicas of the optimizer.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class ProfileLikelihood implements Spawnable {
+
+    private final MaximumLikelihood optimizer;
+    private final int[] dimensions;
+    private final double[][] grids;
+    private final String fileName;
+    private final double level;
+
+    private int threadCount = 1;
+    private long seed = 0;
+
+    /**
+     * @param grids the values at which to profile each of the dimensions
+     * @param level the confidence level of the intervals
+     */
+    public ProfileLikelihood(final MaximumLikelihood optimizer, final int[] dimensions, final double[][] grids,
+                             final String fileName, final double level) {
+        this.optimizer = optimizer;
+        this.dimensions = dimensions;
+        this.grids = new double[grids.length][];
+        for (int p = 0; p < grids.length; ++p) {
+            this.grids[p] = grids[p].clone();
+            Arrays.sort(this.grids[p]);
+        }
+        this.fileName = fileName;
+        this.level = level;
+    }
+
+    public void setThreadCount(final int threadCount, final long seed) {
+        this.threadCount = threadCount;
+        this.seed = seed;
+    }
+
+    @Override
+    public boolean getSpawnable() {
+        return true;
+    }
+
+    @Override
+    public void run() {
+
+        final Parameter variables = optimizer.getVariables();
+
+        optimizer.run();
+        final double[] estimate = variables.getParameterValues();
+        final double maximum = optimizer.evaluate(estimate);
+
+        // Each chain runs outwards from the estimate: for each profile, one downwards and one upwards
+        final List<Chain> chains = new ArrayList<Chain>();
+        for (int p = 0; p < dimensions.length; ++p) {
+            final double[] grid = grids[p];
+            int split = 0;
+            while (split < grid.length && grid[split] < estimate[dimensions[p]])
+                ++split;
+            final int[] down = new int[split];
+            for (int k = 0; k < split; ++k)
+                down[k] = split - 1 - k;
+            final int[] up = new int[grid.length - split];
+            for (int k = 0; k < up.length; ++k)
+                up[k] = split + k;
+            chains.add(new Chain(p, down));
+            chains.add(new Chain(p, up));
+        }
+
+        final PointValuePair[][] profiles = new PointValuePair[dimensions.length][];
+        for (int p = 0; p < dimensions.length; ++p)
+            profiles[p] = new PointValuePair[grids[p].length];
+
+        final int workerCount = Math.min(threadCount, chains.size());
+        final BlockingQueue<MaximumLikelihood> optimizers = new ArrayBlockingQueue<MaximumLikelihood>(workerCount);
+        if (workerCount > 1) {
+            for (int t = 0; t < workerCount; ++t)
+                optimizers.add(Replicas.copy(optimizer));
+        } else {
+            optimizers.add(optimizer);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        try {
+
+            final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int c = 0; c < chains.size(); ++c) {
+                final int chainIndex = c;
+                final int p = chains.get(c).profile;
+                final int[] chain = chains.get(c).indices;
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws InterruptedException {
+                        final MaximumLikelihood optimizer = optimizers.take();
+                        try {
+                            optimizer.setRandomGenerator(RandomStreams.create(seed, chainIndex));
+                            double[] start = estimate;
+                            for (final int k : chain) {
+                                profiles[p][k] = optimizer.maximizeFixed(dimensions[p], grids[p][k], start);
+                                start = profiles[p][k].getPoint();
+                            }
+                        } finally {
+                            optimizers.put(optimizer);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (final Future<Object> future : futures)
+                future.get();
+
+        } catch (final InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (final ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        optimizer.setRandomGenerator(null);
+        optimizer.evaluate(estimate);
+
+        final double drop = new ChiSquaredDistribution(1).inverseCumulativeProbability(level) / 2;
+
+        try {
+            final PrintWriter writer = new PrintWriter(new FileWriter(fileName));
+            try {
+                writer.print("dimension,value,logLikelihood");
+                for (int i = 0; i < variables.getDimension(); ++i)
+                    writer.print("," + variables.getDimensionName(i));
+                writer.println();
+                for (int p = 0; p < dimensions.length; ++p) {
+                    for (int k = 0; k < grids[p].length; ++k) {
+                        writer.print(variables.getDimensionName(dimensions[p]) + "," + grids[p][k] + "," + profiles[p][k].getValue());
+                        for (final double v : profiles[p][k].getPoint())
+                            writer.print("," + v);
+                        writer.println();
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        System.out.println("Profile likelihood intervals (" + level + ", a drop of " + drop + " from " + maximum + "):");
+        for (int p = 0; p < dimensions.length; ++p) {
+            final double[] interval = getInterval(grids[p], profiles[p], estimate[dimensions[p]], maximum, maximum - drop);
+            System.out.println(variables.getDimensionName(dimensions[p]) + ": " + estimate[dimensions[p]] + " ["
+                    + format(interval[0]) + ", " + format(interval[1]) + "]");
+        }
+
+    }
+
+    /**
+     * The first crossings of the threshold on each side of the estimate, found by linear interpolation
+     * between grid points, or infinite where the profile stays above the threshold to the end of the grid.
+     */
+    private static double[] getInterval(final double[] grid, final PointValuePair[] profile, final double estimate,
+                                        final double maximum, final double threshold) {
+
+        double lower = Double.NEGATIVE_INFINITY;
+        double x = estimate;
+        double y = maximum;
+        for (int k = grid.length - 1; k >= 0; --k) {
+            if (grid[k] >= estimate)
+                continue;
+            final double logL = profile[k].getValue();
+            if (logL < threshold) {
+                lower = interpolate(x, y, grid[k], logL, threshold);
+                break;
+            }
+            x = grid[k];
+            y = logL;
+        }
+
+        double upper = Double.POSITIVE_INFINITY;
+        x = estimate;
+        y = maximum;
+        for (int k = 0; k < grid.length; ++k) {
+            if (grid[k] < estimate)
+                continue;
+            final double logL = profile[k].getValue();
+            if (logL < threshold) {
+                upper = interpolate(x, y, grid[k], logL, threshold);
+                break;
+            }
+            x = grid[k];
+            y = logL;
+        }
+
+        return new double[]{lower, upper};
+    }
+
+    private static double interpolate(final double x0, final double y0, final double x1, final double y1, final double y) {
+        return x0 + (y - y0) / (y1 - y0) * (x1 - x0);
+    }
+
+    private static final class Chain {
+
+        private final int profile;
+        private final int[] indices;
+
+        private Chain(final int profile, final int[] indices) {
+            this.profile = profile;
+            this.indices = indices;
+        }
+
+    }
+
+    private static String format(final double x) {
+        return Double.isInfinite(x) ? "beyond the grid" : Double.toString(x);
+    }
+
+    public static final XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        private static final String PROFILE = "profile";
+        private static final String DIMENSION = "dimension";
+        private static final String VALUES = "values";
+        private static final String LOWER = "lower";
+        private static final String UPPER = "upper";
+        private static final String POINTS = "points";
+        private static final String LOG = "log";
+        private static final String FILE_NAME = "fileName";
+        private static final String LEVEL = "level";
+        private static final String THREADS = "threads";
+        private static final String SEED = "seed";
+
+        @Override
+        public Object parseXMLObject(final XMLObject xo) throws XMLParseException {
+
+            final MaximumLikelihood optimizer = (MaximumLikelihood) xo.getChild(MaximumLikelihood.class);
+            final Parameter variables = optimizer.getVariables();
+
+            final List<Integer> dimensions = new ArrayList<Integer>();
+            final List<double[]> grids = new ArrayList<double[]>();
+            for (int c = 0; c < xo.getChildCount(); ++c) {
+
+                if (!(xo.getChild(c) instanceof XMLObject) || !((XMLObject) xo.getChild(c)).getName().equals(PROFILE))
+                    continue;
+                final XMLObject cxo = (XMLObject) xo.getChild(c);
+
+                final int dimension = cxo.getIntegerAttribute(DIMENSION);
+                if (dimension < 1 || dimension > variables.getDimension())
+                    throw new XMLParseException("Dimension " + dimension + " is out of range for " + variables.getId());
+
+                final double[] grid;
+                if (cxo.hasAttribute(VALUES)) {
+                    grid = cxo.getDoubleArrayAttribute(VALUES);
+                } else {
+                    final double lower = cxo.getDoubleAttribute(LOWER);
+                    final double upper = cxo.getDoubleAttribute(UPPER);
+                    final int points = cxo.getIntegerAttribute(POINTS);
+                    final boolean log = cxo.getAttribute(LOG, false);
+                    if (points < 2 || !(lower < upper) || (log && !(lower > 0)))
+                        throw new XMLParseException("A grid needs at least two points and " + LOWER + " < " + UPPER
+                                + " (and a positive " + LOWER + " on a " + LOG + " scale)");
+                    grid = new double[points];
+                    for (int k = 0; k < points; ++k) {
+                        final double t = (double) k / (points - 1);
+                        grid[k] = log ? lower * Math.pow(upper / lower, t) : lower + t * (upper - lower);
+                    }
+                }
+
+                for (final double v : grid) {
+                    if (!(v >= variables.getBounds().getLowerLimit(dimension - 1) && v <= variables.getBounds().getUpperLimit(dimension - 1)))
+                        throw new XMLParseException("The grid value " + v + " is outside the bounds of dimension " + dimension);
+                }
+
+                dimensions.add(dimension - 1);
+                grids.add(grid);
+            }
+
+            if (dimensions.isEmpty())
+                throw new XMLParseException("At least one " + PROFILE + " is required");
+
+            final int[] d = new int[dimensions.size()];
+            for (int p = 0; p < d.length; ++p)
+                d[p] = dimensions.get(p);
+
+            final double level = xo.getAttribute(LEVEL, 0.95);
+            if (!(level > 0 && level < 1))
+                throw new XMLParseException(LEVEL + " must be between 0 and 1");
+
+            final ProfileLikelihood profile = new ProfileLikelihood(optimizer, d, grids.toArray(new double[grids.size()][]),
+                    xo.getStringAttribute(FILE_NAME), level);
+
+            final int threads = xo.getAttribute(THREADS, 1);
+            if (threads < 1)
+                throw new XMLParseException(THREADS + " must be positive");
+            profile.setThreadCount(threads, xo.hasAttribute(SEED) ? xo.getLongIntegerAttribute(SEED) : MathUtils.nextLong());
+
+            return profile;
+        }
+
+        @Override
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+        private final XMLSyntaxRule[] rules = {
+                new ElementRule(MaximumLikelihood.class),
+                AttributeRule.newStringRule(FILE_NAME),
+                AttributeRule.newDoubleRule(LEVEL, true),
+                AttributeRule.newIntegerRule(THREADS, true),
+                AttributeRule.newLongIntegerRule(SEED, true),
+                new ElementRule(PROFILE, new XMLSyntaxRule[]{
+                        AttributeRule.newIntegerRule(DIMENSION),
+                        AttributeRule.newDoubleArrayRule(VALUES, true),
+                        AttributeRule.newDoubleRule(LOWER, true),
+                        AttributeRule.newDoubleRule(UPPER, true),
+                        AttributeRule.newIntegerRule(POINTS, true),
+                        AttributeRule.newBooleanRule(LOG, true)
+                }, 1, Integer.MAX_VALUE)
+        };
+
+        @Override
+        public String getParserDescription() {
+            return "Profiles the likelihood over grids of values for individual dimensions and reports likelihood-ratio intervals.";
+        }
+
+        @Override
+        public Class getReturnType() {
+            return ProfileLikelihood.class;
+        }
+
+        @Override
+        public String getParserName() {
+            return "profileLikelihood";
+        }
+
+    };
+
+}
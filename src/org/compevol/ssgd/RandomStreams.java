@@ -0,0 +1,135 @@
+/*
+ * RandomStreams.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.math.MathUtils;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+
+/**
+ * Derives independent random number streams from a master seed, so that work can be split
+ * across threads without the result depending on how it was split.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public final class RandomStreams {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final RandomGenerator GLOBAL = new RandomGenerator() {
+
+        @Override
+        public void setSeed(int i) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setSeed(int[] ints) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setSeed(long l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            MathUtils.nextBytes(bytes);
+        }
+
+        @Override
+        public int nextInt() {
+            return MathUtils.nextInt();
+        }
+
+        @Override
+        public int nextInt(int i) {
+            return MathUtils.nextInt(i);
+        }
+
+        @Override
+        public long nextLong() {
+            return MathUtils.nextLong();
+        }
+
+        @Override
+        public boolean nextBoolean() {
+            return MathUtils.nextBoolean();
+        }
+
+        @Override
+        public float nextFloat() {
+            return MathUtils.nextFloat();
+        }
+
+        @Override
+        public double nextDouble() {
+            return MathUtils.nextDouble();
+        }
+
+        @Override
+        public double nextGaussian() {
+            return MathUtils.nextGaussian();
+        }
+    };
+
+    private RandomStreams() {
+        // No instances
+    }
+
+    public static long deriveSeed(final long seed, final long stream) {
+        return mix(mix(seed) + (stream + 1) * GOLDEN_GAMMA);
+    }
+
+    public static RandomGenerator create(final long seed, final long stream) {
+        return new Well19937c(deriveSeed(seed, stream));
+    }
+
+    /**
+     * A counter-based uniform on (0, 1): the same key always gives the same value, so any draw can be regenerated
+     * by any worker without replaying a stream.
+     */
+    public static double uniform(final long seed, final long replicate, final long unit, final long draw) {
+        final long h = deriveSeed(deriveSeed(deriveSeed(seed, replicate), unit), draw);
+        return ((h >>> 11) + 0.5) * 0x1.0p-53;
+    }
+
+    /**
+     * A view of the global MathUtils generator, for code that does not (yet) have its own stream.
+     */
+    public static RandomGenerator global() {
+        return GLOBAL;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Replicas.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Makes independent replicas of model graphs for use by concurrent workers.
+ * Everything reachable from the original is copied in one pass, so objects shared within the graph
+ * (e.g. a parameter used by both a likelihood and an optimizer) are also shared within the replica.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public final class Replicas {
+
+    private Replicas() {
+        // No instances
+    }
+
+    public static <T> T copy(final T original) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            try {
+                out.writeObject(original);
+            } finally {
+                out.close();
+            }
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            try {
+                @SuppressWarnings("unchecked")
+                final T copy = (T) in.readObject();
+                return copy;
+            } finally {
+                in.close();
+            }
+        } catch (final NotSerializableException ex) {
+            throw new IllegalArgumentException("Cannot replicate a model graph containing a " + ex.getMessage(), ex);
+        } catch (final IOException ex) {
+            throw new RuntimeException(ex);
+        } catch (final ClassNotFoundException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * ReweightedPatterns.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.util.Taxon;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A view of a PatternList with its own pattern weights. The patterns themselves are shared with the parent,
+ * and the weights can be refilled in place, so a bootstrap replicate costs a single array.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class ReweightedPatterns implements PatternList {
+
+    private final PatternList patterns;
+    private final double[] weights;
+
+    private String id;
+
+    /**
+     * Starts with a copy of the parent's weights.
+     */
+    public ReweightedPatterns(final PatternList patterns) {
+        this(patterns, patterns.getPatternWeights().clone());
+    }
+
+    /**
+     * Takes ownership of the weights, which then back this view.
+     */
+    public ReweightedPatterns(final PatternList patterns, final double[] weights) {
+        if (weights.length != patterns.getPatternCount())
+            throw new IllegalArgumentException("Expected " + patterns.getPatternCount() + " weights but got " + weights.length);
+        this.patterns = patterns;
+        this.weights = weights;
+    }
+
+    /**
+     * The weights backing this view, which may be modified in place.
+     */
+    public double[] getWeights() {
+        return weights;
+    }
+
+    @Override
+    public int getPatternCount() {
+        return patterns.getPatternCount();
+    }
+
+    @Override
+    public int getStateCount() {
+        return patterns.getStateCount();
+    }
+
+    @Override
+    public int getPatternLength() {
+        return patterns.getPatternLength();
+    }
+
+    @Override
+    public int[] getPattern(final int patternIndex) {
+        return patterns.getPattern(patternIndex);
+    }
+
+    @Override
+    public int getPatternState(final int taxonIndex, final int patternIndex) {
+        return patterns.getPatternState(taxonIndex, patternIndex);
+    }
+
+    @Override
+    public double getPatternWeight(final int patternIndex) {
+        return weights[patternIndex];
+    }
+
+    /**
+     * The weights backing this view, not a copy, so they must be treated as read-only.
+     * Use {@link #getWeights} to modify them in place.
+     */
+    @Override
+    public double[] getPatternWeights() {
+        return weights;
+    }
+
+    @Override
+    public DataType getDataType() {
+        return patterns.getDataType();
+    }
+
+    @Override
+    public double[] getStateFrequencies() {
+        return PatternList.Utils.empiricalStateFrequencies(this);
+    }
+
+    @Override
+    public int getTaxonCount() {
+        return patterns.getTaxonCount();
+    }
+
+    @Override
+    public Taxon getTaxon(final int taxonIndex) {
+        return patterns.getTaxon(taxonIndex);
+    }
+
+    @Override
+    public String getTaxonId(final int taxonIndex) {
+        return patterns.getTaxonId(taxonIndex);
+    }
+
+    @Override
+    public int getTaxonIndex(final String id) {
+        return patterns.getTaxonIndex(id);
+    }
+
+    @Override
+    public int getTaxonIndex(final Taxon taxon) {
+        return patterns.getTaxonIndex(taxon);
+    }
+
+    @Override
+    public List<Taxon> asList() {
+        return patterns.asList();
+    }
+
+    @Override
+    public Object getTaxonAttribute(final int taxonIndex, final String name) {
+        return patterns.getTaxonAttribute(taxonIndex, name);
+    }
+
+    @Override
+    public Iterator<Taxon> iterator() {
+        return patterns.iterator();
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(final String id) {
+        this.id = id;
+    }
+
+}
@@ -44,14 +44,20 @@ public class SSGD implements Plugin {
         final Set<XMLObjectParser> parsers = new HashSet<XMLObjectParser>();
         parsers.add(SSGDAnalysis.PARSER);
         parsers.add(PairedCompositeLikelihood.PARSER);
+        parsers.add(CompoundPairedLikelihood.PARSER);
         parsers.add(HKYSkylineIntegrator.PARSER);
         parsers.add(TaxonSpecificSequenceErrorModel.PARSER);
         parsers.add(new LambertFormatParser());
+        parsers.add(new LambertFormatAppender());
         parsers.add(PairedPatternsSimulator.PARSER);
         parsers.add(new PairedPatternsFrequenciesParser());
+        parsers.add(PairedPatternsConverter.PARSER);
+        parsers.add(BlockPairedPatterns.PARSER);
         parsers.add(MaximumLikelihood.PARSER);
         parsers.add(LogLikelihoodFunction.PARSER);
         parsers.add(Bootstrapper.PARSER);
+        parsers.add(ProfileLikelihood.PARSER);
+        parsers.add(CoarseToFineSkyline.PARSER);
         this.parsers = Collections.unmodifiableSet(parsers);
     }
 
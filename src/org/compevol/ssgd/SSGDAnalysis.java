@@ -27,13 +27,17 @@
 package org.compevol.ssgd;
 
 import dr.evolution.alignment.PatternList;
+import dr.inference.model.Parameter;
 import dr.xml.AbstractXMLObjectParser;
 import dr.xml.XMLObject;
 import dr.xml.XMLObjectParser;
 import dr.xml.XMLParseException;
 import dr.xml.XMLSyntaxRule;
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.random.RandomGenerator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -41,19 +45,75 @@ import java.util.List;
  */
 public class SSGDAnalysis implements Bootstrappable {
 
+    private static final long serialVersionUID = 0L;
+
     private final MaximumLikelihood optimizer;
     private final PairedCompositeLikelihood[] likelihoods;
+    private PairedPatterns[] convertedPatterns = null;
 
     public SSGDAnalysis(final MaximumLikelihood optimizer, final PairedCompositeLikelihood... likelihoods) {
         this.optimizer = optimizer;
         this.likelihoods = likelihoods;
     }
 
+    @Override
+    public Parameter getVariables() {
+        return optimizer.getVariables();
+    }
+
+    @Override
+    public TransformedFunction getFunction() {
+        return optimizer.getFunction();
+    }
+
+    @Override
+    public PairedCompositeLikelihood[] getLikelihoods() {
+        return likelihoods;
+    }
+
+    /**
+     * The paired patterns converted from the first pattern lists given are refilled for later ones,
+     * so every replicate reuses the same paired weights.
+     */
     @Override
     public void setPatterns(final PatternList... patterns) {
-        // TODO Fix me
-//        for (int i = 0; i < likelihoods.length; ++i)
-//            likelihoods[i].setPatterns(patterns[i]);
+        if (convertedPatterns == null || convertedPatterns.length != patterns.length) {
+            convertedPatterns = new PairedPatterns[patterns.length];
+            for (int i = 0; i < patterns.length; ++i)
+                convertedPatterns[i] = new PairedPatternsConverter(patterns[i]).convert();
+        } else {
+            for (int i = 0; i < patterns.length; ++i)
+                new PairedPatternsConverter(patterns[i]).convert(convertedPatterns[i], 1);
+        }
+        setPairedPatterns(convertedPatterns);
+    }
+
+    @Override
+    public void setPairedPatterns(final PairedPatterns... patterns) {
+        if (patterns.length != likelihoods.length)
+            throw new IllegalArgumentException("Expected patterns for " + likelihoods.length + " likelihoods but got " + patterns.length);
+        for (int i = 0; i < likelihoods.length; ++i)
+            likelihoods[i].setPatterns(patterns[i]);
+    }
+
+    @Override
+    public void setRandomGenerator(final RandomGenerator random) {
+        optimizer.setRandomGenerator(random);
+    }
+
+    @Override
+    public double[] getResult() {
+        return optimizer.getVariables().getParameterValues();
+    }
+
+    @Override
+    public void setResult(final double[] result) {
+        ParameterUpdates.setParameterValues(optimizer.getVariables(), result);
+    }
+
+    @Override
+    public void setOriginalResult(final double[] result) {
+        optimizer.setWarmStart(result);
     }
 
     @Override
@@ -71,6 +131,8 @@ public class SSGDAnalysis implements Bootstrappable {
                 final Object o = xo.getChild(i);
                 if (o instanceof PairedCompositeLikelihood)
                     likelihoods.add((PairedCompositeLikelihood) o);
+                else if (o instanceof CompoundPairedLikelihood)
+                    likelihoods.addAll(Arrays.asList(((CompoundPairedLikelihood) o).getPartitions()));
             }
             return new SSGDAnalysis(optimizer, likelihoods.toArray(new PairedCompositeLikelihood[likelihoods.size()]));
         }
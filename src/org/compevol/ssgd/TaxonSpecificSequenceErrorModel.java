@@ -29,7 +29,9 @@ package org.compevol.ssgd;
 import dr.evolution.datatype.Nucleotides;
 import dr.evolution.util.TaxonList;
 import dr.evomodel.treelikelihood.SequenceErrorModel;
+import dr.inference.model.Model;
 import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
 import dr.xml.AbstractXMLObjectParser;
 import dr.xml.AttributeRule;
 import dr.xml.ElementRule;
@@ -39,17 +41,29 @@ import dr.xml.XMLParseException;
 import dr.xml.XMLSyntaxRule;
 import dr.xml.XORRule;
 
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 /**
  * @author Arman Bilge <armanbilge@gmail.com>
  */
-public class TaxonSpecificSequenceErrorModel extends SequenceErrorModel {
+public class TaxonSpecificSequenceErrorModel extends SequenceErrorModel implements PairwiseTipErrorModel {
 
     private final ErrorType errorType;
     private final Parameter baseErrorRateParameter;
     private final Parameter ageRelatedErrorRateParameter;
     private final Parameter indicatorParameter;
+    private final TaxonList includeTaxa;
+    private final TaxonList excludeTaxa;
+
+    private double[][] cachedPartials = null;
+    private boolean[] partialsKnown = null;
+    private long[] taxonVersions = null;
+
+    private double[] taxonHeights = null;
+    private boolean[] taxonExcluded = null;
+    private double[][] errorProbabilities = null;
+    private boolean[] errorProbabilitiesKnown = null;
 
     public TaxonSpecificSequenceErrorModel(TaxonList includeTaxa, TaxonList excludeTaxa,
                                            ErrorType errorType, Parameter baseErrorRateParameter,
@@ -58,6 +72,8 @@ public class TaxonSpecificSequenceErrorModel extends SequenceErrorModel {
         super(includeTaxa, excludeTaxa, errorType, baseErrorRateParameter, ageRelatedErrorRateParameter, indicatorParameter);
 
         this.errorType = errorType;
+        this.includeTaxa = includeTaxa;
+        this.excludeTaxa = excludeTaxa;
 
         if (baseErrorRateParameter != null) {
             this.baseErrorRateParameter = baseErrorRateParameter;
@@ -82,115 +98,215 @@ public class TaxonSpecificSequenceErrorModel extends SequenceErrorModel {
 
     }
 
+    /**
+     * The partials of each taxon are cached until one of its error parameters changes.
+     */
     @Override
-    public void getTipPartials(int nodeIndex, double[] partials) {
+    public synchronized void getTipPartials(int nodeIndex, double[] partials) {
+        final int length = patternCount * stateCount;
+        if (cachedPartials == null || cachedPartials.length != states.length || cachedPartials[nodeIndex].length != length) {
+            cachedPartials = new double[states.length][length];
+            partialsKnown = new boolean[states.length];
+            if (taxonVersions == null || taxonVersions.length != states.length)
+                taxonVersions = new long[states.length];
+        }
+        if (!partialsKnown[nodeIndex]) {
+            calculateTipPartials(nodeIndex, cachedPartials[nodeIndex]);
+            partialsKnown[nodeIndex] = true;
+        }
+        System.arraycopy(cachedPartials[nodeIndex], 0, partials, 0, length);
+    }
 
-        int[] states = this.states[nodeIndex];
-        if (indicatorParameter == null || indicatorParameter.getParameterValue(nodeIndex) > 0.0) {
+    /**
+     * Native pairwise access, computed directly from the heights of the taxa without a tree.
+     * Only the three error probabilities of each taxon are cached.
+     */
+    @Override
+    public synchronized void setTaxa(TaxonList taxa) {
+        final int taxonCount = taxa.getTaxonCount();
+        taxonHeights = new double[taxonCount];
+        taxonExcluded = new boolean[taxonCount];
+        for (int i = 0; i < taxonCount; ++i) {
+            taxonHeights[i] = taxa.getTaxon(i).getHeight();
+            if (includeTaxa != null)
+                taxonExcluded[i] = includeTaxa.getTaxonIndex(taxa.getTaxon(i)) == -1;
+            else if (excludeTaxa != null)
+                taxonExcluded[i] = excludeTaxa.getTaxonIndex(taxa.getTaxon(i)) != -1;
+        }
+        errorProbabilities = new double[taxonCount][3];
+        errorProbabilitiesKnown = new boolean[taxonCount];
+        taxonVersions = new long[taxonCount];
+        invalidate(-1);
+    }
 
-            double pUndamaged = 1.0;
-            double pDamagedTS = 0.0;
-            double pDamagedTV = 0.0;
+    @Override
+    public synchronized void getStatePartials(int taxon, double[][] partials) {
+        final double[] p = errorProbabilities[taxon];
+        if (!errorProbabilitiesKnown[taxon]) {
+            calculateErrorProbabilities(taxon, taxonExcluded[taxon], taxonHeights[taxon], p);
+            errorProbabilitiesKnown[taxon] = true;
+        }
+        for (int state = 0; state < partials.length; ++state)
+            setPartial(state, p[0], p[1], p[2], partials[state], 0);
+    }
 
-            if (!excluded[nodeIndex]) {
-                if (baseErrorRateParameter != null) {
-                    pUndamaged = pUndamaged - baseErrorRateParameter.getParameterValue(nodeIndex);
-                }
+    @Override
+    public Model getModel() {
+        return this;
+    }
 
-                if (ageRelatedErrorRateParameter != null) {
-                    double rate = ageRelatedErrorRateParameter.getParameterValue(0);
-                    double age = tree.getNodeHeight(tree.getExternalNode(nodeIndex));
-                    pUndamaged *= Math.exp(-rate * age);
-                }
+    /**
+     * Each taxon's version is incremented whenever its partials are invalidated,
+     * so every caller can track changes with its own record of the versions it has seen.
+     */
+    @Override
+    public synchronized int[] getChangedTaxa(long[] seenVersions) {
+        int count = 0;
+        for (int i = 0; i < seenVersions.length; ++i) {
+            if (taxonVersions == null || seenVersions[i] != taxonVersions[i])
+                ++count;
+        }
+        final int[] taxa = new int[count];
+        for (int i = 0, k = 0; i < seenVersions.length; ++i) {
+            if (taxonVersions == null || seenVersions[i] != taxonVersions[i]) {
+                taxa[k++] = i;
+                if (taxonVersions != null)
+                    seenVersions[i] = taxonVersions[i];
+            }
+        }
+        return taxa;
+    }
 
+    private synchronized void invalidate(final int index) {
+        invalidate(partialsKnown, index);
+        invalidate(errorProbabilitiesKnown, index);
+        if (taxonVersions == null)
+            return;
+        if (index >= 0 && index < taxonVersions.length) {
+            ++taxonVersions[index];
+        } else {
+            for (int i = 0; i < taxonVersions.length; ++i)
+                ++taxonVersions[i];
+        }
+    }
 
-                if (errorType == ErrorType.ALL_SUBSTITUTIONS) {
-                    pDamagedTS = (1.0 - pUndamaged) / 3.0;
-                    pDamagedTV = pDamagedTS;
+    private static void invalidate(final boolean[] known, final int index) {
+        if (known == null)
+            return;
+        if (index >= 0 && index < known.length)
+            known[index] = false;
+        else
+            Arrays.fill(known, false);
+    }
 
-                } else if (errorType == ErrorType.TRANSITIONS_ONLY) {
-                    pDamagedTS = 1.0 - pUndamaged;
-                    pDamagedTV = 0.0;
-                } else {
-                    throw new IllegalArgumentException("only TRANSITIONS_ONLY and ALL_SUBSTITUTIONS are supported");
-                }
+    @Override
+    protected void handleVariableChangedEvent(Variable variable, int index, Variable.ChangeType type) {
+        super.handleVariableChangedEvent(variable, index, type);
+        if (variable == baseErrorRateParameter || variable == indicatorParameter) {
+            final int[] dimensions = index == -1 ? ParameterUpdates.getChangedDimensions(variable) : null;
+            if (dimensions != null) {
+                for (final int d : dimensions)
+                    invalidate(d);
+            } else {
+                invalidate(index);
+            }
+        } else // The age-related rate is shared by all taxa
+            invalidate(-1);
+    }
 
+    @Override
+    protected void taxaChanged() {
+        super.taxaChanged();
+        invalidate(-1);
+    }
+
+    @Override
+    protected void restoreState() {
+        super.restoreState();
+        invalidate(-1);
+    }
+
+    private void calculateTipPartials(int nodeIndex, double[] partials) {
+
+        final double[] p = new double[3];
+        calculateErrorProbabilities(nodeIndex, excluded[nodeIndex], tree.getNodeHeight(tree.getExternalNode(nodeIndex)), p);
+
+        int[] states = this.states[nodeIndex];
+        int k = 0;
+        for (int j = 0; j < patternCount; j++) {
+            setPartial(states[j], p[0], p[1], p[2], partials, k);
+            k += stateCount;
+        }
+    }
+
+    /**
+     * The probabilities of a site being undamaged, damaged by a transition and damaged by a given transversion.
+     */
+    private void calculateErrorProbabilities(int index, boolean excluded, double age, double[] p) {
+
+        double pUndamaged = 1.0;
+        double pDamagedTS = 0.0;
+        double pDamagedTV = 0.0;
+
+        if (!excluded && (indicatorParameter == null || indicatorParameter.getParameterValue(index) > 0.0)) {
+            if (baseErrorRateParameter != null) {
+                pUndamaged = pUndamaged - baseErrorRateParameter.getParameterValue(index);
             }
 
-            int k = 0;
-            for (int j = 0; j < patternCount; j++) {
-                switch (states[j]) {
-                    case Nucleotides.A_STATE: // is an A
-                        partials[k] = pUndamaged;
-                        partials[k + 1] = pDamagedTV;
-                        partials[k + 2] = pDamagedTS;
-                        partials[k + 3] = pDamagedTV;
-                        break;
-                    case Nucleotides.C_STATE: // is an C
-                        partials[k] = pDamagedTV;
-                        partials[k + 1] = pUndamaged;
-                        partials[k + 2] = pDamagedTV;
-                        partials[k + 3] = pDamagedTS;
-                        break;
-                    case Nucleotides.G_STATE: // is an G
-                        partials[k] = pDamagedTS;
-                        partials[k + 1] = pDamagedTV;
-                        partials[k + 2] = pUndamaged;
-                        partials[k + 3] = pDamagedTV;
-                        break;
-                    case Nucleotides.UT_STATE: // is an T
-                        partials[k] = pDamagedTV;
-                        partials[k + 1] = pDamagedTS;
-                        partials[k + 2] = pDamagedTV;
-                        partials[k + 3] = pUndamaged;
-                        break;
-                    default: // is an ambiguity
-                        partials[k] = 1.0;
-                        partials[k + 1] = 1.0;
-                        partials[k + 2] = 1.0;
-                        partials[k + 3] = 1.0;
-                }
-                k += stateCount;
+            if (ageRelatedErrorRateParameter != null) {
+                double rate = ageRelatedErrorRateParameter.getParameterValue(0);
+                pUndamaged *= Math.exp(-rate * age);
             }
-        } else {
-            int k = 0;
-            for (int j = 0; j < patternCount; j++) {
-
-                switch (states[j]) {
-                    case Nucleotides.A_STATE: // is an A
-                        partials[k] = 1.0;
-                        partials[k + 1] = 0.0;
-                        partials[k + 2] = 0.0;
-                        partials[k + 3] = 0.0;
-                        break;
-                    case Nucleotides.C_STATE: // is an C
-                        partials[k] = 0.0;
-                        partials[k + 1] = 1.0;
-                        partials[k + 2] = 0.0;
-                        partials[k + 3] = 0.0;
-                        break;
-                    case Nucleotides.G_STATE: // is an G
-                        partials[k] = 0.0;
-                        partials[k + 1] = 0.0;
-                        partials[k + 2] = 1.0;
-                        partials[k + 3] = 0.0;
-                        break;
-                    case Nucleotides.UT_STATE: // is an T
-                        partials[k] = 0.0;
-                        partials[k + 1] = 0.0;
-                        partials[k + 2] = 0.0;
-                        partials[k + 3] = 1.0;
-                        break;
-                    default: // is an ambiguity
-                        partials[k] = 1.0;
-                        partials[k + 1] = 1.0;
-                        partials[k + 2] = 1.0;
-                        partials[k + 3] = 1.0;
-                }
 
-                k += stateCount;
+
+            if (errorType == ErrorType.ALL_SUBSTITUTIONS) {
+                pDamagedTS = (1.0 - pUndamaged) / 3.0;
+                pDamagedTV = pDamagedTS;
+
+            } else if (errorType == ErrorType.TRANSITIONS_ONLY) {
+                pDamagedTS = 1.0 - pUndamaged;
+                pDamagedTV = 0.0;
+            } else {
+                throw new IllegalArgumentException("only TRANSITIONS_ONLY and ALL_SUBSTITUTIONS are supported");
             }
+        }
+
+        p[0] = pUndamaged;
+        p[1] = pDamagedTS;
+        p[2] = pDamagedTV;
+    }
 
+    private static void setPartial(int state, double pUndamaged, double pDamagedTS, double pDamagedTV, double[] partials, int k) {
+        switch (state) {
+            case Nucleotides.A_STATE: // is an A
+                partials[k] = pUndamaged;
+                partials[k + 1] = pDamagedTV;
+                partials[k + 2] = pDamagedTS;
+                partials[k + 3] = pDamagedTV;
+                break;
+            case Nucleotides.C_STATE: // is an C
+                partials[k] = pDamagedTV;
+                partials[k + 1] = pUndamaged;
+                partials[k + 2] = pDamagedTV;
+                partials[k + 3] = pDamagedTS;
+                break;
+            case Nucleotides.G_STATE: // is an G
+                partials[k] = pDamagedTS;
+                partials[k + 1] = pDamagedTV;
+                partials[k + 2] = pUndamaged;
+                partials[k + 3] = pDamagedTV;
+                break;
+            case Nucleotides.UT_STATE: // is an T
+                partials[k] = pDamagedTV;
+                partials[k + 1] = pDamagedTS;
+                partials[k + 2] = pDamagedTV;
+                partials[k + 3] = pUndamaged;
+                break;
+            default: // is an ambiguity
+                partials[k] = 1.0;
+                partials[k + 1] = 1.0;
+                partials[k + 2] = 1.0;
+                partials[k + 3] = 1.0;
         }
     }
 
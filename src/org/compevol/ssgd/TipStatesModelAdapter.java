@@ -0,0 +1,128 @@
+/*
+ * TipStatesModelAdapter.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.evolution.alignment.Patterns;
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.SimpleNode;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.TaxonList;
+import dr.evomodel.treelikelihood.TipStatesModel;
+import dr.inference.model.Model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Exposes a generic tip states model as a pairwise tip error model.
+ * The tip states model is set up with one fake pattern per state and a fake tree of the taxa.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class TipStatesModelAdapter implements PairwiseTipErrorModel, Serializable {
+
+    private static final long serialVersionUID = 0L;
+
+    private final TipStatesModel tipStatesModel;
+    private final DataType dataType;
+    private int taxonCount = 0;
+    private double[] partials = null;
+
+    public TipStatesModelAdapter(final TipStatesModel tipStatesModel, final DataType dataType) {
+        this.tipStatesModel = tipStatesModel;
+        this.dataType = dataType;
+    }
+
+    /**
+     * The model itself if it already implements the pairwise interface, otherwise an adapter for it.
+     */
+    public static PairwiseTipErrorModel adapt(final TipStatesModel tipStatesModel, final DataType dataType) {
+        if (tipStatesModel instanceof PairwiseTipErrorModel)
+            return (PairwiseTipErrorModel) tipStatesModel;
+        return new TipStatesModelAdapter(tipStatesModel, dataType);
+    }
+
+    @Override
+    public void setTaxa(final TaxonList taxa) {
+
+        taxonCount = taxa.getTaxonCount();
+        final int stateCount = dataType.getStateCount();
+        partials = new double[stateCount * stateCount];
+
+        final Patterns fakePatterns = new Patterns(dataType, taxa);
+        for (int i = 0; i < stateCount; ++i) {
+            final int[] pattern = new int[taxonCount];
+            Arrays.fill(pattern, i);
+            fakePatterns.addPattern(pattern);
+        }
+        SimpleNode root = new SimpleNode();
+        root.setTaxon(taxa.getTaxon(0));
+        root.setHeight(root.getTaxon().getHeight());
+        for (int i = 1; i < taxonCount; ++i) {
+            final SimpleNode child = new SimpleNode();
+            child.setTaxon(taxa.getTaxon(i));
+            child.setHeight(child.getTaxon().getHeight());
+            final SimpleNode newRoot = new SimpleNode();
+            newRoot.addChild(root);
+            newRoot.addChild(child);
+            root = newRoot;
+        }
+        final Tree fakeTree = new SimpleTree(root);
+        tipStatesModel.setTree(fakeTree);
+        for (int i = 0; i < taxonCount; ++i)
+            tipStatesModel.setStates(fakePatterns, i, i, taxa.getTaxon(i).getId());
+    }
+
+    @Override
+    public void getStatePartials(final int taxon, final double[][] statePartials) {
+        final int stateCount = dataType.getStateCount();
+        // The fake patterns hold one state each, so the taxon's block of tip partials covers every state
+        synchronized (tipStatesModel) {
+            tipStatesModel.getTipPartials(taxon, partials);
+            for (int state = 0; state < stateCount; ++state)
+                System.arraycopy(partials, stateCount * state, statePartials[state], 0, stateCount);
+        }
+    }
+
+    /**
+     * A generic tip states model does not say which taxa it changed, so all are reported.
+     */
+    @Override
+    public int[] getChangedTaxa(final long[] seenVersions) {
+        final int[] taxa = new int[taxonCount];
+        for (int i = 0; i < taxonCount; ++i)
+            taxa[i] = i;
+        return taxa;
+    }
+
+    @Override
+    public Model getModel() {
+        return tipStatesModel;
+    }
+
+}
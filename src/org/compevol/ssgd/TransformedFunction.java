@@ -0,0 +1,75 @@
+/*
+ * TransformedFunction.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+import org.apache.commons.math3.analysis.MultivariateFunction;
+
+import java.io.IOException;
+
+/**
+ * A function of the values of some parameters whose arguments are mapped to those values by per-dimension transforms,
+ * so that it can be optimized in the space of the arguments.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public interface TransformedFunction extends MultivariateFunction {
+
+    ParameterTransform getTransform(int dimension);
+
+    double[] toArguments(double[] values);
+
+    double[] toValues(double[] args);
+
+    /**
+     * The lower bounds of the values, as arguments.
+     */
+    double[] getLowerBounds();
+
+    /**
+     * The upper bounds of the values, as arguments.
+     */
+    double[] getUpperBounds();
+
+    /**
+     * The chain rule for a gradient with respect to the values.
+     */
+    double[] gradientToArguments(double[] args, double[] gradient);
+
+    /**
+     * The chain rule for a Hessian with respect to the values, which also needs the gradient
+     * wherever a transform is not linear.
+     */
+    double[][] hessianToArguments(double[] args, double[] gradient, double[][] hessian);
+
+    /**
+     * Writes out and releases anything recorded about the evaluations (e.g. a trace), at the end of a run.
+     * Later evaluations are no longer recorded.
+     *
+     * @throws IOException if that fails
+     */
+    void close() throws IOException;
+
+}
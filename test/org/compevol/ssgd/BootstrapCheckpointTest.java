@@ -0,0 +1,84 @@
+/*
+ * BootstrapCheckpointTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class BootstrapCheckpointTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResults() {
+        final BootstrapCheckpoint checkpoint = new BootstrapCheckpoint(42, false);
+        final double[] result = {1.0, 2.0};
+        checkpoint.addResult(3, result);
+        result[0] = 5.0;
+        Assert.assertTrue(checkpoint.isComplete(3));
+        Assert.assertFalse(checkpoint.isComplete(0));
+        Assert.assertArrayEquals(new double[]{1.0, 2.0}, checkpoint.getResult(3), 0.0);
+        Assert.assertEquals(1, checkpoint.getCompletedCount());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final File file = new File(folder.getRoot(), "checkpoint");
+        final BootstrapCheckpoint checkpoint = new BootstrapCheckpoint(-7L, true);
+        checkpoint.addResult(0, new double[]{0.5, 1.5});
+        checkpoint.addResult(2, new double[]{2.5, 3.5});
+        checkpoint.write(file);
+
+        final BootstrapCheckpoint read = BootstrapCheckpoint.read(file);
+        Assert.assertEquals(-7L, read.getSeed());
+        Assert.assertTrue(read.isPoisson());
+        Assert.assertEquals(2, read.getCompletedCount());
+        Assert.assertArrayEquals(new double[]{0.5, 1.5}, read.getResult(0), 0.0);
+        Assert.assertArrayEquals(new double[]{2.5, 3.5}, read.getResult(2), 0.0);
+        Assert.assertFalse(read.isComplete(1));
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        final File file = new File(folder.getRoot(), "checkpoint");
+        final BootstrapCheckpoint checkpoint = new BootstrapCheckpoint(1, false);
+        checkpoint.write(file);
+        checkpoint.addResult(0, new double[]{1.0});
+        checkpoint.write(file);
+        Assert.assertEquals(1, BootstrapCheckpoint.read(file).getCompletedCount());
+        Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+}
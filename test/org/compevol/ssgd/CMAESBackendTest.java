@@ -0,0 +1,111 @@
+/*
+ * CMAESBackendTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.exception.TooManyIterationsException;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.SimpleValueChecker;
+import org.apache.commons.math3.random.MersenneTwister;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.Serializable;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class CMAESBackendTest {
+
+    private static final double[] START = {0.5, 0.5, 0.5};
+    private static final double[] SIGMA = {0.3, 0.3, 0.3};
+    private static final double[] LOWER = {0.0, 0.0, 0.0};
+    private static final double[] UPPER = {2.0, 2.0, 2.0};
+
+    private static final class Quadratic implements MultivariateFunction, Serializable {
+        private static final double[] OPTIMUM = {1.0, 0.25, 1.5};
+        @Override
+        public double value(final double[] point) {
+            double value = 0;
+            for (int i = 0; i < point.length; ++i)
+                value -= (i + 1) * (point[i] - OPTIMUM[i]) * (point[i] - OPTIMUM[i]);
+            return value;
+        }
+    }
+
+    private static PointValuePair maximize(final CMAESBackend backend, final MultivariateFunction function, final long seed) {
+        return backend.maximize(function, START, SIGMA, LOWER, UPPER, 100000,
+                new SimpleValueChecker(1e-12, 1e-12), new MersenneTwister(seed));
+    }
+
+    @Test
+    public void testBatchFindsOptimum() {
+        final CMAESBackend backend = new CMAESBackend(0, 5);
+        backend.setBatch(true);
+        final PointValuePair optimum = maximize(backend, new Quadratic(), 42);
+        Assert.assertArrayEquals(Quadratic.OPTIMUM, optimum.getPoint(), 1e-4);
+    }
+
+    @Test
+    public void testBatchIndependentOfThreads() {
+        final CMAESBackend backend = new CMAESBackend(0, 5);
+        backend.setBatch(true);
+        final ConcurrentFunction sequential = new ConcurrentFunction(new Quadratic(), 1);
+        final ConcurrentFunction concurrent = new ConcurrentFunction(new Quadratic(), 4);
+        try {
+            final PointValuePair expected = maximize(backend, sequential, 42);
+            final PointValuePair actual = maximize(backend, concurrent, 42);
+            Assert.assertArrayEquals(expected.getPoint(), actual.getPoint(), 0.0);
+            Assert.assertEquals(expected.getValue(), actual.getValue(), 0.0);
+        } finally {
+            sequential.shutdown();
+            concurrent.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchStaysInBounds() {
+        final CMAESBackend backend = new CMAESBackend();
+        backend.setBatch(true);
+        final double[] upper = {0.5, 2.0, 2.0};
+        final PointValuePair optimum = backend.maximize(new Quadratic(), START, new double[]{0.1, 0.3, 0.3}, LOWER, upper,
+                100000, new SimpleValueChecker(1e-12, 1e-12), new MersenneTwister(7));
+        for (int i = 0; i < START.length; ++i) {
+            Assert.assertTrue(optimum.getPoint()[i] >= LOWER[i]);
+            Assert.assertTrue(optimum.getPoint()[i] <= upper[i]);
+        }
+        Assert.assertEquals(0.5, optimum.getPoint()[0], 1e-3);
+    }
+
+    @Test(expected = TooManyIterationsException.class)
+    public void testBatchOutOfIterations() {
+        final CMAESBackend backend = new CMAESBackend();
+        backend.setBatch(true);
+        backend.setMaxIterations(3);
+        maximize(backend, new Quadratic(), 42);
+    }
+
+}
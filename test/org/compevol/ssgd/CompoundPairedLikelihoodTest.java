@@ -0,0 +1,141 @@
+/*
+ * CompoundPairedLikelihoodTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.util.Date;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.PiecewisePopulationModel;
+import dr.evomodel.sitemodel.GammaSiteModel;
+import dr.evomodel.sitemodel.SiteModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.treelikelihood.SequenceErrorModel;
+import dr.inference.model.Parameter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class CompoundPairedLikelihoodTest {
+
+    private static final double TOLERANCE = 1e-9;
+    private static final double[] HEIGHTS = {0.0, 0.0, 500.0, 2000.0};
+
+    private Parameter populationSizes;
+
+    /**
+     * Two partitions that share the site, substitution and population models but not their patterns.
+     */
+    private CompoundPairedLikelihood createLikelihood(final int threadCount, final CountDownLatch latch,
+                                                      final AtomicBoolean concurrent) {
+
+        final FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE,
+                new Parameter.Default(new double[]{0.3, 0.2, 0.2, 0.3}));
+        final HKY hky = new HKY(new Parameter.Default(2.0), frequencies);
+        final SiteModel siteModel = new GammaSiteModel(hky);
+        populationSizes = new Parameter.Default(new double[]{10000.0, 5000.0});
+        final PiecewisePopulationModel population = new PiecewisePopulationModel("population", populationSizes,
+                new double[]{1000.0}, false, Units.Type.YEARS);
+
+        final PairedCompositeLikelihood[] partitions = new PairedCompositeLikelihood[2];
+        for (int p = 0; p < partitions.length; ++p) {
+            final TaxonSpecificSequenceErrorModel errorModel = new TaxonSpecificSequenceErrorModel(null, null,
+                    SequenceErrorModel.ErrorType.ALL_SUBSTITUTIONS, new Parameter.Default(HEIGHTS.length, 0.01), null, null);
+            final HKYSkylineIntegrator integrator = new HKYSkylineIntegrator(hky, population);
+            if (latch == null) {
+                partitions[p] = new PairedCompositeLikelihood(createPatterns(p), siteModel, integrator, errorModel);
+            } else {
+                partitions[p] = new PairedCompositeLikelihood(createPatterns(p), siteModel, integrator, errorModel) {
+                    @Override
+                    protected double calculateLogLikelihood() {
+                        // Each partition waits for the other to start, which only happens if they run concurrently
+                        latch.countDown();
+                        try {
+                            if (!latch.await(10, TimeUnit.SECONDS))
+                                concurrent.set(false);
+                        } catch (final InterruptedException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                        return super.calculateLogLikelihood();
+                    }
+                };
+            }
+        }
+
+        return new CompoundPairedLikelihood(threadCount, partitions);
+    }
+
+    private static PairedPatterns createPatterns(final int partition) {
+        final Taxa taxa = new Taxa();
+        for (int i = 0; i < HEIGHTS.length; ++i) {
+            final Taxon taxon = new Taxon("taxon" + i);
+            taxon.setDate(new Date(HEIGHTS[i], Units.Type.YEARS, true));
+            taxa.addTaxon(taxon);
+        }
+        final PairedPatterns patterns = new PairedPatterns(Nucleotides.INSTANCE, taxa);
+        for (int m = 0; m < HEIGHTS.length; ++m) {
+            for (int n = m + 1; n < HEIGHTS.length; ++n) {
+                for (int i = 0; i < 4; ++i) {
+                    for (int j = 0; j < 4; ++j)
+                        patterns.addPattern(m, i, n, j, i == j ? 100 + m + n + 10 * partition : 1 + (i + j + partition) % 3);
+                }
+            }
+        }
+        return patterns;
+    }
+
+    @Test
+    public void testSharedModelsEvaluatedConcurrently() {
+
+        final CompoundPairedLikelihood serial = createLikelihood(1, null, null);
+        final Parameter serialSizes = populationSizes;
+        final double expected = serial.getLogLikelihood();
+
+        final AtomicBoolean concurrent = new AtomicBoolean(true);
+        final CompoundPairedLikelihood parallel = createLikelihood(2, new CountDownLatch(2), concurrent);
+        final double logL = parallel.getLogLikelihood();
+
+        Assert.assertTrue(concurrent.get());
+        Assert.assertFalse(Double.isNaN(expected) || Double.isInfinite(expected));
+        Assert.assertEquals(expected, logL, TOLERANCE);
+
+        // The shared population model is brought up to date before the partitions are evaluated again
+        serialSizes.setParameterValue(1, 20000.0);
+        populationSizes.setParameterValue(1, 20000.0);
+        final double changed = serial.getLogLikelihood();
+        Assert.assertNotEquals(expected, changed, TOLERANCE);
+        Assert.assertEquals(changed, parallel.getLogLikelihood(), TOLERANCE);
+    }
+
+}
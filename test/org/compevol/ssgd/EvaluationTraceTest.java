@@ -0,0 +1,96 @@
+/*
+ * EvaluationTraceTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import dr.inference.model.Parameter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class EvaluationTraceTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> readLines(final File file) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+                lines.add(line);
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    @Test
+    public void testClosedTraceIsReleased() throws IOException {
+
+        final File file = folder.newFile("trace.csv");
+        final EvaluationTrace trace = new EvaluationTrace(file, new String[]{"x"}, 2, false, 4);
+
+        // While open, replicas share the trace of the original
+        Assert.assertSame(trace, Replicas.copy(trace));
+
+        for (int i = 0; i < 10; ++i)
+            trace.record(new double[]{i}, -i, 1);
+        trace.close();
+
+        // Once closed, it is no longer open to replicas, which are then not traced
+        Assert.assertNull(Replicas.copy(trace));
+
+        trace.record(new double[]{10}, -10, 1);
+        final List<String> lines = readLines(file);
+        Assert.assertEquals("evaluation,time,x,logLikelihood,nanoseconds", lines.get(0));
+        Assert.assertEquals(6, lines.size());
+    }
+
+    @Test
+    public void testFunctionClosesTrace() throws IOException {
+
+        final File file = folder.newFile("trace.csv");
+        final EvaluationTrace trace = new EvaluationTrace(file, new String[]{"x"}, 1, false, 4);
+        final LogLikelihoodFunction function = new LogLikelihoodFunction(null, new Parameter.Default(1.0));
+        function.setTrace(trace);
+        function.close();
+
+        Assert.assertNull(Replicas.copy(trace));
+        Assert.assertEquals(1, readLines(file).size());
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * LambertFormatAppenderTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.xml.XMLParseException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class LambertFormatAppenderTest {
+
+    private static final String[] EXISTING = {
+            "taxon0,120,80,95,105,ACGTRN-A",
+            "taxon1,110,90,100,100,ACGAAC-T",
+            "taxon2,100,100,90,110,CCGTAGTA"
+    };
+
+    private static final String[] APPENDED = {
+            "taxon3,130,70,85,115,ACTTYCGA",
+            "taxon4,90,110,105,95,GCGTACGN"
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(final String name, final String... lines) throws IOException {
+        final File file = folder.newFile(name);
+        final Writer writer = new FileWriter(file);
+        try {
+            for (final String line : lines)
+                writer.write(line + "\n");
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static Taxa taxa(final int from, final int to) {
+        final Taxa taxa = new Taxa();
+        for (int i = from; i < to; ++i)
+            taxa.addTaxon(new Taxon("taxon" + i));
+        return taxa;
+    }
+
+    @Test
+    public void testAppendEqualsRecount() throws IOException, XMLParseException {
+
+        final ArrayList<LambertFormatParser.SequenceRecord> records = LambertFormatParser.readRecords(write("existing", EXISTING));
+        final PairedPatterns existing = new PairedPatterns(Nucleotides.INSTANCE, taxa(0, 3));
+        LambertFormatParser.countPairs(existing, records, 0);
+
+        final PairedPatterns appended = LambertFormatAppender.append(existing, records, taxa(3, 5),
+                LambertFormatParser.readRecords(write("appended", APPENDED)));
+
+        final String[] all = new String[EXISTING.length + APPENDED.length];
+        System.arraycopy(EXISTING, 0, all, 0, EXISTING.length);
+        System.arraycopy(APPENDED, 0, all, EXISTING.length, APPENDED.length);
+        final PairedPatterns recounted = new PairedPatterns(Nucleotides.INSTANCE, taxa(0, 5));
+        LambertFormatParser.countPairs(recounted, LambertFormatParser.readRecords(write("all", all)), 0);
+
+        Assert.assertTrue(appended.isCompatible(recounted));
+        Assert.assertArrayEquals(recounted.getWeights(), appended.getWeights(), 0.0);
+        Assert.assertEquals(all.length, records.size());
+    }
+
+    @Test(expected = XMLParseException.class)
+    public void testExistingTaxonRejected() throws IOException, XMLParseException {
+        final ArrayList<LambertFormatParser.SequenceRecord> records = LambertFormatParser.readRecords(write("existing", EXISTING));
+        final PairedPatterns existing = new PairedPatterns(Nucleotides.INSTANCE, taxa(0, 3));
+        LambertFormatParser.countPairs(existing, records, 0);
+        LambertFormatAppender.append(existing, records, taxa(2, 4), LambertFormatParser.readRecords(write("appended", APPENDED)));
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * LatinHypercubeTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import org.apache.commons.math3.random.MersenneTwister;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class LatinHypercubeTest {
+
+    @Test
+    public void testOnePointPerStratum() {
+        final int count = 8;
+        final double[] lower = {0.0, -5.0};
+        final double[] upper = {1.0, 15.0};
+        final double[][] points = LatinHypercube.sample(new MersenneTwister(1), count, new double[]{0.5, 0.0}, lower, upper);
+        Assert.assertEquals(count, points.length);
+        for (int i = 0; i < lower.length; ++i) {
+            final boolean[] filled = new boolean[count];
+            for (final double[] point : points) {
+                Assert.assertTrue(point[i] >= lower[i] && point[i] <= upper[i]);
+                final int stratum = (int) Math.floor((point[i] - lower[i]) / (upper[i] - lower[i]) * count);
+                Assert.assertFalse(filled[stratum]);
+                filled[stratum] = true;
+            }
+        }
+    }
+
+    @Test
+    public void testPositiveUnboundedIsLogSpread() {
+        final int count = 10;
+        final double centre = 1000.0;
+        final double[][] points = LatinHypercube.sample(new MersenneTwister(2), count, new double[]{centre},
+                new double[]{0.0}, new double[]{Double.POSITIVE_INFINITY});
+        final boolean[] filled = new boolean[count];
+        for (final double[] point : points) {
+            Assert.assertTrue(point[0] >= centre / 10 * (1 - 1e-12) && point[0] <= centre * 10 * (1 + 1e-12));
+            // Strata are equal on a log scale over a factor of ten either side of the centre
+            final int stratum = (int) Math.floor((Math.log(point[0] / centre) / Math.log(10.0) + 1) / 2 * count);
+            Assert.assertFalse(filled[stratum]);
+            filled[stratum] = true;
+        }
+    }
+
+    @Test
+    public void testUnboundedAroundCentre() {
+        final double[][] points = LatinHypercube.sample(new MersenneTwister(3), 5, new double[]{-2.0},
+                new double[]{Double.NEGATIVE_INFINITY}, new double[]{Double.POSITIVE_INFINITY});
+        for (final double[] point : points)
+            Assert.assertTrue(point[0] >= -22.0 && point[0] <= 18.0);
+    }
+
+    @Test
+    public void testReproducible() {
+        final double[] centre = {1.0, 2.0};
+        final double[] lower = {0.0, 0.0};
+        final double[] upper = {10.0, Double.POSITIVE_INFINITY};
+        Assert.assertArrayEquals(LatinHypercube.sample(new MersenneTwister(4), 6, centre, lower, upper),
+                LatinHypercube.sample(new MersenneTwister(4), 6, centre, lower, upper));
+    }
+
+}
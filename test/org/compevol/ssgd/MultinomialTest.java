@@ -0,0 +1,125 @@
+/*
+ * MultinomialTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import org.apache.commons.math3.random.MersenneTwister;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class MultinomialTest {
+
+    @Test
+    public void testCountsSumToTrials() {
+        final RandomGenerator random = new MersenneTwister(1);
+        final double[] weights = {3.0, 0.5, 0.0, 12.0, 1.0};
+        final double[] counts = new double[weights.length];
+        for (final long n : new long[]{0, 1, 17, 1000, 5000000000L}) {
+            Multinomial.sample(random, n, weights, counts);
+            double sum = 0;
+            for (final double c : counts) {
+                Assert.assertTrue(c >= 0);
+                Assert.assertEquals(Math.rint(c), c, 0.0);
+                sum += c;
+            }
+            Assert.assertEquals(n, sum, 0.0);
+            Assert.assertEquals(0.0, counts[2], 0.0);
+        }
+    }
+
+    @Test
+    public void testMeanCounts() {
+        final RandomGenerator random = new MersenneTwister(2);
+        final double[] weights = {1.0, 2.0, 3.0, 4.0};
+        final double[] counts = new double[weights.length];
+        final double[] totals = new double[weights.length];
+        final int replicates = 2000;
+        final long n = 100;
+        for (int r = 0; r < replicates; ++r) {
+            Multinomial.sample(random, n, weights, counts);
+            for (int i = 0; i < weights.length; ++i)
+                totals[i] += counts[i];
+        }
+        for (int i = 0; i < weights.length; ++i) {
+            final double p = weights[i] / 10.0;
+            final double standardError = Math.sqrt(n * p * (1 - p) / replicates);
+            Assert.assertEquals(n * p, totals[i] / replicates, 5 * standardError);
+        }
+    }
+
+    @Test
+    public void testBinomialEdgeCases() {
+        final RandomGenerator random = new MersenneTwister(3);
+        Assert.assertEquals(0, Multinomial.binomial(random, 100, 0.0));
+        Assert.assertEquals(100, Multinomial.binomial(random, 100, 1.0));
+        Assert.assertEquals(0, Multinomial.binomial(random, 0, 0.5));
+    }
+
+    @Test
+    public void testBinomialMean() {
+        final RandomGenerator random = new MersenneTwister(4);
+        // Both the inversion and the rejection sampler are exercised, and p above one half
+        for (final double p : new double[]{0.01, 0.2, 0.9}) {
+            for (final long n : new long[]{50, 100000}) {
+                final int replicates = 2000;
+                double sum = 0;
+                for (int r = 0; r < replicates; ++r) {
+                    final long k = Multinomial.binomial(random, n, p);
+                    Assert.assertTrue(k >= 0 && k <= n);
+                    sum += k;
+                }
+                final double standardError = Math.sqrt(n * p * (1 - p) / replicates);
+                Assert.assertEquals(n * p, sum / replicates, 5 * standardError);
+            }
+        }
+    }
+
+    @Test
+    public void testBinomialVariance() {
+        final RandomGenerator random = new MersenneTwister(5);
+        // The rejection sampler, including beyond the range of an int
+        for (final long n : new long[]{100, 1000000, 5000000000L}) {
+            final double p = 0.3;
+            final int replicates = 20000;
+            double sum = 0;
+            double sumOfSquares = 0;
+            for (int r = 0; r < replicates; ++r) {
+                final double k = Multinomial.binomial(random, n, p);
+                sum += k;
+                sumOfSquares += k * k;
+            }
+            final double mean = sum / replicates;
+            final double variance = n * p * (1 - p);
+            Assert.assertEquals(n * p, mean, 5 * Math.sqrt(variance / replicates));
+            // The variance of the sample variance is about 2 variance^2 / replicates for these near normal counts
+            Assert.assertEquals(variance, sumOfSquares / replicates - mean * mean, 5 * variance * Math.sqrt(2.0 / replicates));
+        }
+    }
+
+}
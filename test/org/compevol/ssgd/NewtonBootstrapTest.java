@@ -0,0 +1,140 @@
+/*
+ * NewtonBootstrapTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A log likelihood that is quadratic in the arguments is maximized exactly by one Newton step,
+ * so every replicate's approximation should be its exact estimate.
+ *
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class NewtonBootstrapTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    // The curvature of each unit's log likelihood, -(x - c)' A (x - c) / 2
+    private static final double[][] A = {{2.0, 0.5}, {0.5, 1.0}};
+    private static final double[][] CENTRES = {{1.0, 4.0}, {2.0, 3.0}, {4.0, 8.0}, {5.0, 1.0}};
+    private static final double[][] REPLICATE_WEIGHTS = {{1, 1, 1, 1}, {4, 0, 0, 0}, {0, 2, 1, 1}, {2, 0, 2, 0}};
+
+    private static LogLikelihoodFunction function(final Parameter variables) {
+        final Likelihood likelihood = new Likelihood.Abstract(null) {
+            @Override
+            protected double calculateLogLikelihood() {
+                return 0;
+            }
+        };
+        return new LogLikelihoodFunction(likelihood, variables);
+    }
+
+    private static Parameter variables(final double[] values, final double lower, final double upper) {
+        final Parameter variables = new Parameter.Default(values);
+        variables.addBounds(new Parameter.DefaultBounds(upper, lower, values.length));
+        return variables;
+    }
+
+    private static double[] weightedMean(final double[][] centres, final double[] weights) {
+        final double[] mean = new double[centres[0].length];
+        double total = 0;
+        for (int u = 0; u < centres.length; ++u) {
+            for (int d = 0; d < mean.length; ++d)
+                mean[d] += weights[u] * centres[u][d];
+            total += weights[u];
+        }
+        for (int d = 0; d < mean.length; ++d)
+            mean[d] /= total;
+        return mean;
+    }
+
+    private static NewtonBootstrap quadratic(final double lower, final double upper) {
+
+        final int units = CENTRES.length;
+        final double[] estimate = weightedMean(CENTRES, new double[]{1, 1, 1, 1});
+        final Parameter variables = variables(estimate, lower, upper);
+
+        final double[][][] unitScores = new double[1][units][2];
+        for (int u = 0; u < units; ++u) {
+            for (int i = 0; i < 2; ++i) {
+                for (int j = 0; j < 2; ++j)
+                    unitScores[0][u][i] -= A[i][j] * (estimate[j] - CENTRES[u][j]);
+            }
+        }
+        final double[][] hessian = new double[2][2];
+        for (int i = 0; i < 2; ++i) {
+            for (int j = 0; j < 2; ++j)
+                hessian[i][j] = -units * A[i][j];
+        }
+
+        return new NewtonBootstrap(variables, function(variables), unitScores, hessian, new double[][]{{1, 1, 1, 1}});
+    }
+
+    @Test
+    public void testQuadraticIsExact() {
+        final NewtonBootstrap bootstrap = quadratic(-100.0, 100.0);
+        for (final double[] weights : REPLICATE_WEIGHTS)
+            Assert.assertArrayEquals(weightedMean(CENTRES, weights), bootstrap.estimate(new double[][]{weights}), TOLERANCE);
+    }
+
+    @Test
+    public void testEstimateIsClampedToBounds() {
+        final NewtonBootstrap bootstrap = quadratic(1.5, 4.5);
+        // The exact estimate for these weights is (4, 8)
+        final double[] estimate = bootstrap.estimate(new double[][]{{0, 0, 4, 0}});
+        Assert.assertEquals(4.0, estimate[0], TOLERANCE);
+        Assert.assertEquals(4.5, estimate[1], 0.0);
+    }
+
+    @Test
+    public void testQuadraticInLogIsExact() {
+
+        // Each unit's log likelihood is -a (log x - c)^2 / 2, which is quadratic in the argument of a log transform
+        final double a = 3.0;
+        final double[] centres = {0.5, 1.0, 2.0};
+        final double logEstimate = (centres[0] + centres[1] + centres[2]) / 3;
+        final double estimate = Math.exp(logEstimate);
+        final Parameter variables = variables(new double[]{estimate}, 0.0, Double.POSITIVE_INFINITY);
+        final LogLikelihoodFunction function = function(variables);
+        function.setTransform(0, new ParameterTransform.Log());
+
+        // The scores and the Hessian are with respect to the value
+        final double[][][] unitScores = new double[1][centres.length][1];
+        for (int u = 0; u < centres.length; ++u)
+            unitScores[0][u][0] = -a * (logEstimate - centres[u]) / estimate;
+        final double[][] hessian = {{-a * centres.length / (estimate * estimate)}};
+
+        final NewtonBootstrap bootstrap = new NewtonBootstrap(variables, function, unitScores, hessian,
+                new double[][]{{1, 1, 1}});
+        final double[] weights = {0, 1, 2};
+        final double expected = Math.exp((weights[1] * centres[1] + weights[2] * centres[2]) / 3);
+        Assert.assertEquals(expected, bootstrap.estimate(new double[][]{weights})[0], TOLERANCE * expected);
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * ParameterTransformTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class ParameterTransformTest {
+
+    private static final double TOLERANCE = 1e-9;
+    private static final double STEP = 1e-4;
+
+    private static void checkTransform(final ParameterTransform transform, final double... values) {
+        for (final double value : values) {
+
+            final double argument = transform.toArgument(value);
+            Assert.assertEquals(value, transform.toValue(argument), TOLERANCE * Math.max(Math.abs(value), 1));
+
+            final double derivative = (transform.toValue(argument + STEP) - transform.toValue(argument - STEP)) / (2 * STEP);
+            Assert.assertEquals(derivative, transform.derivative(argument), 1e-6 * Math.max(Math.abs(derivative), 1));
+
+            final double secondDerivative = (transform.derivative(argument + STEP) - transform.derivative(argument - STEP))
+                    / (2 * STEP);
+            Assert.assertEquals(secondDerivative, transform.secondDerivative(argument),
+                    1e-6 * Math.max(Math.abs(secondDerivative), 1));
+
+            Assert.assertTrue(transform.derivative(argument) > 0);
+        }
+    }
+
+    @Test
+    public void testScale() {
+        checkTransform(new ParameterTransform.Scale(1000.0), 0.0, 1.0, 1000.0, 25000.0);
+        Assert.assertEquals(1.0, new ParameterTransform.Scale(1000.0).toArgument(1000.0), TOLERANCE);
+    }
+
+    @Test
+    public void testScaleOfZero() {
+        final ParameterTransform transform = new ParameterTransform.Scale(0.0);
+        Assert.assertEquals(3.0, transform.toValue(3.0), TOLERANCE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeScale() {
+        new ParameterTransform.Scale(-1000.0);
+    }
+
+    @Test
+    public void testLog() {
+        checkTransform(new ParameterTransform.Log(), 1e-3, 1.0, 10.0, 5000.0);
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, new ParameterTransform.Log().toArgument(0.0), 0.0);
+    }
+
+    @Test
+    public void testLogit() {
+        final ParameterTransform transform = new ParameterTransform.Logit(2.0, 6.0);
+        checkTransform(transform, 2.01, 3.0, 4.0, 5.5, 5.99);
+        Assert.assertEquals(0.0, transform.toArgument(4.0), TOLERANCE);
+        Assert.assertTrue(transform.toValue(50.0) <= 6.0);
+        Assert.assertTrue(transform.toValue(-50.0) >= 2.0);
+    }
+
+    @Test
+    public void testAffine() {
+        checkTransform(new ParameterTransform.Affine(-3.0, 0.5), -10.0, -3.0, 0.0, 7.0);
+        Assert.assertEquals(0.0, new ParameterTransform.Affine(-3.0, 0.5).toArgument(-3.0), TOLERANCE);
+    }
+
+}
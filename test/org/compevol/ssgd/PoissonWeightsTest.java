@@ -0,0 +1,81 @@
+/*
+ * PoissonWeightsTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.compevol.ssgd;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class PoissonWeightsTest {
+
+    @Test
+    public void testNonPositiveMean() {
+        Assert.assertEquals(0.0, PoissonWeights.sample(1, 0, 0, 0.0), 0.0);
+        Assert.assertEquals(0.0, PoissonWeights.sample(1, 0, 0, -1.0), 0.0);
+    }
+
+    @Test
+    public void testDeterministic() {
+        for (final double mean : new double[]{1.0, 50.0}) {
+            for (int unit = 0; unit < 100; ++unit)
+                Assert.assertEquals(PoissonWeights.sample(7, 3, unit, mean), PoissonWeights.sample(7, 3, unit, mean), 0.0);
+        }
+    }
+
+    @Test
+    public void testMeanAndVariance() {
+        // Below and above the threshold for inversion
+        for (final double mean : new double[]{0.5, 3.0, 25.0, 400.0}) {
+            final int units = 20000;
+            double sum = 0;
+            double sumSquares = 0;
+            for (int unit = 0; unit < units; ++unit) {
+                final double k = PoissonWeights.sample(11, 0, unit, mean);
+                Assert.assertTrue(k >= 0);
+                Assert.assertEquals(Math.rint(k), k, 0.0);
+                sum += k;
+                sumSquares += k * k;
+            }
+            final double sampleMean = sum / units;
+            final double sampleVariance = sumSquares / units - sampleMean * sampleMean;
+            Assert.assertEquals(mean, sampleMean, 5 * Math.sqrt(mean / units));
+            Assert.assertEquals(mean, sampleVariance, 0.1 * mean);
+        }
+    }
+
+    @Test
+    public void testReplicatesDiffer() {
+        int same = 0;
+        for (int unit = 0; unit < 100; ++unit) {
+            if (PoissonWeights.sample(5, 0, unit, 20.0) == PoissonWeights.sample(5, 1, unit, 20.0))
+                ++same;
+        }
+        Assert.assertTrue(same < 50);
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * ReplicasTest.java
+ *
+ * SSGD: Serially-Sampled Genome Demographics
+ *
+ * Copyright (c) 2015 Arman Bilge <armanbilge@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.compevol.ssgd;
+
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.util.Date;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.PiecewisePopulationModel;
+import dr.evomodel.sitemodel.GammaSiteModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.treelikelihood.SequenceErrorModel;
+import dr.inference.model.Parameter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Arman Bilge <armanbilge@gmail.com>
+ */
+public class ReplicasTest {
+
+    private static final double TOLERANCE = 1e-12;
+
+    private Parameter populationSizes;
+    private LogLikelihoodFunction function;
+
+    @Before
+    public void setUp() {
+
+        final Taxa taxa = new Taxa();
+        final double[] heights = {0.0, 0.0, 500.0, 2000.0};
+        for (int i = 0; i < heights.length; ++i) {
+            final Taxon taxon = new Taxon("taxon" + i);
+            taxon.setDate(new Date(heights[i], Units.Type.YEARS, true));
+            taxa.addTaxon(taxon);
+        }
+
+        final PairedPatterns patterns = new PairedPatterns(Nucleotides.INSTANCE, taxa);
+        for (int m = 0; m < heights.length; ++m) {
+            for (int n = m + 1; n < heights.length; ++n) {
+                for (int i = 0; i < 4; ++i) {
+                    for (int j = 0; j < 4; ++j)
+                        patterns.addPattern(m, i, n, j, i == j ? 100 + m + n : 1 + (i + j) % 3);
+                }
+            }
+        }
+
+        final FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE,
+                new Parameter.Default(new double[]{0.3, 0.2, 0.2, 0.3}));
+        final HKY hky = new HKY(new Parameter.Default(2.0), frequencies);
+        populationSizes = new Parameter.Default(new double[]{10000.0, 5000.0});
+        final PiecewisePopulationModel population = new PiecewisePopulationModel("population", populationSizes,
+                new double[]{1000.0}, false, Units.Type.YEARS);
+        final TaxonSpecificSequenceErrorModel errorModel = new TaxonSpecificSequenceErrorModel(null, null,
+                SequenceErrorModel.ErrorType.ALL_SUBSTITUTIONS, new Parameter.Default(heights.length, 0.01), null, null);
+
+        final PairedCompositeLikelihood likelihood = new PairedCompositeLikelihood(patterns, new GammaSiteModel(hky),
+                new HKYSkylineIntegrator(hky, population), errorModel);
+        function = new LogLikelihoodFunction(likelihood, populationSizes);
+    }
+
+    @Test
+    public void testReplicaHasSameLogLikelihood() {
+        final double[] args = function.toArguments(new double[]{8000.0, 12000.0});
+        final double expected = function.value(args);
+        final LogLikelihoodFunction replica = Replicas.copy(function);
+        Assert.assertEquals(expected, replica.value(args), TOLERANCE);
+        Assert.assertFalse(Double.isNaN(expected) || Double.isInfinite(expected));
+    }
+
+    @Test
+    public void testReplicaIsIndependent() {
+        final double[] args = function.toArguments(new double[]{8000.0, 12000.0});
+        final double expected = function.value(args);
+        final LogLikelihoodFunction replica = Replicas.copy(function);
+
+        final double[] other = function.toArguments(new double[]{20000.0, 3000.0});
+        final double replicaValue = replica.value(other);
+        Assert.assertEquals(8000.0, populationSizes.getParameterValue(0), 0.0);
+        Assert.assertEquals(12000.0, populationSizes.getParameterValue(1), 0.0);
+
+        // Neither the parameters nor the caches of the original are touched by the replica
+        Assert.assertEquals(expected, function.value(args), TOLERANCE);
+        Assert.assertEquals(replicaValue, function.value(other), TOLERANCE);
+    }
+
+}